@@ -1,6 +1,8 @@
 package com.redhat.engineering.plugins.actions;
 
 import com.atlassian.jira.web.action.JiraWebActionSupport;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.RequestTimer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -10,8 +12,39 @@ import java.util.List;
  */
 public abstract class AbstractAction extends JiraWebActionSupport {
 
+    private final ActionMetrics actionMetrics;
     private List<String> messages;
 
+    protected AbstractAction(ActionMetrics actionMetrics) {
+        this.actionMetrics = actionMetrics;
+    }
+
+    /**
+     * Names the request timed by the request timing filter after the action and charges the time
+     * after it returns, rendering the view, to render. Requests outside of the filter are timed here,
+     * without their view.
+     */
+    @Override
+    public String execute() throws Exception {
+        RequestTimer timer = RequestTimer.begin(getClass().getSimpleName());
+        if (timer == null) {
+            boolean named = RequestTimer.name(getClass().getSimpleName());
+            try {
+                return super.execute();
+            } finally {
+                if (named) {
+                    RequestTimer.startRender();
+                }
+            }
+        }
+        try {
+            return super.execute();
+        } finally {
+            timer.end();
+            actionMetrics.record(timer);
+        }
+    }
+
     public List<String> getMessages() {
         return messages;
     }
@@ -0,0 +1,156 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.atlassian.jira.user.ApplicationUser;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.EstimateService;
+import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies final estimates of several finished sessions at once. Only sessions owned by the current
+ * user are offered and accepted.
+ */
+@SupportedMethods({RequestMethod.GET, RequestMethod.POST})
+public class BulkEstimateAction extends AbstractAction {
+
+    private final JiraAuthenticationContext authContext;
+    private final SessionService sessionService;
+    private final VoteService voteService;
+    private final EstimateService estimateService;
+
+    // props
+    private String[] keys = new String[0];
+    private String[] values = new String[0];
+    private List<Session> sessions;
+
+    public BulkEstimateAction(JiraAuthenticationContext authContext, SessionService sessionService,
+                              VoteService voteService, EstimateService estimateService,
+                              ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.authContext = authContext;
+        this.sessionService = sessionService;
+        this.voteService = voteService;
+        this.estimateService = estimateService;
+    }
+
+    public String[] getKeys() {
+        return keys;
+    }
+
+    public void setKeys(String[] keys) {
+        this.keys = keys;
+    }
+
+    public String[] getValues() {
+        return values;
+    }
+
+    public void setValues(String[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!authContext.isLoggedInUser()) {
+            addErrorMessage("You must be logged in to be able to apply estimates.");
+            return ERROR;
+        }
+        return INPUT;
+    }
+
+    @Override
+    public void doValidation() {
+        if (keys.length != values.length) {
+            addErrorMessage("Every issue needs exactly one estimate value.");
+            return;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null || "".equals(values[i].trim())) {
+                continue;
+            }
+            try {
+                double value = Double.parseDouble(values[i].trim());
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    addError("value-" + keys[i], "Estimate '" + values[i] + "' is not a finite number.");
+                }
+            } catch (NumberFormatException e) {
+                addError("value-" + keys[i], "Estimate '" + values[i] + "' is not a number.");
+            }
+        }
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        if (estimateService.getEstimateField() == null) {
+            addErrorMessage("The configured estimate field does not exist.");
+            return ERROR;
+        }
+
+        Map<Session, Double> estimates = new LinkedHashMap<Session, Double>();
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null || "".equals(values[i].trim())) {
+                continue;
+            }
+            Session session = sessionService.getVisible(keys[i]);
+            if (session == null || !isApplicable(session)) {
+                addError("value-" + keys[i], "You cannot apply an estimate to " + keys[i] + ".");
+                continue;
+            }
+            estimates.put(session, Double.parseDouble(values[i].trim()));
+        }
+
+        Map<String, String> errors = estimateService.apply(estimates);
+        for (Map.Entry<String, String> error : errors.entrySet()) {
+            addError("value-" + error.getKey(), error.getValue());
+        }
+
+        int applied = estimates.size() - errors.size();
+        addMessage("Estimates applied to " + applied + (applied == 1 ? " issue." : " issues."));
+        sessions = null;
+        return INPUT;
+    }
+
+    /**
+     * @return finished sessions of the current user, newest first
+     */
+    public List<Session> getSessions() {
+        if (sessions == null) {
+            sessions = new ArrayList<Session>();
+            for (Session session : sessionService.getAll()) {
+                if (isApplicable(session)) {
+                    sessions.add(session);
+                }
+            }
+        }
+        return sessions;
+    }
+
+    public Object getSuggestedEstimate(Session session) {
+        if (session.getAppliedEstimate() != null) {
+            return session.getAppliedEstimate();
+        }
+        Map<String, Object> stats = voteService.getStats(session);
+        return stats.get("average");
+    }
+
+    public Integer getVotesSize(Session session) {
+        return voteService.getVoteValsBySession(session).size();
+    }
+
+    private boolean isApplicable(Session session) {
+        ApplicationUser user = authContext.getUser();
+        // the issue is looked up last, only for sessions that pass the cheap checks
+        return session.isAuthor(user) && sessionService.getStatus(session) == Status.FINISHED
+                && session.getIssue() != null;
+    }
+}
@@ -1,11 +1,13 @@
 package com.redhat.engineering.plugins.actions;
 
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.project.ProjectManager;
 import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
+import com.redhat.engineering.plugins.services.ActionMetrics;
 import com.redhat.engineering.plugins.services.ConfigService;
 
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -14,11 +16,45 @@ import java.util.List;
 @SupportedMethods({RequestMethod.GET, RequestMethod.POST})
 public class ConfigAction extends AbstractAction {
     private final ConfigService configService;
+    private final ProjectManager projectManager;
+    private final CustomFieldManager customFieldManager;
 
     private String allowedVotes;
+    private String projectKey;
+    private String estimateField;
+    private String digestMinutes;
+    private String slowRequestMillis;
 
-    public ConfigAction(ConfigService configService) {
+    public ConfigAction(ConfigService configService, ProjectManager projectManager,
+                        CustomFieldManager customFieldManager, ActionMetrics actionMetrics) {
+        super(actionMetrics);
         this.configService = configService;
+        this.projectManager = projectManager;
+        this.customFieldManager = customFieldManager;
+    }
+
+    public String getEstimateField() {
+        return estimateField;
+    }
+
+    public void setEstimateField(String estimateField) {
+        this.estimateField = estimateField == null ? null : estimateField.trim();
+    }
+
+    public String getDigestMinutes() {
+        return digestMinutes;
+    }
+
+    public void setDigestMinutes(String digestMinutes) {
+        this.digestMinutes = digestMinutes == null ? null : digestMinutes.trim();
+    }
+
+    public String getSlowRequestMillis() {
+        return slowRequestMillis;
+    }
+
+    public void setSlowRequestMillis(String slowRequestMillis) {
+        this.slowRequestMillis = slowRequestMillis == null ? null : slowRequestMillis.trim();
     }
 
     public String getAllowedVotes() {
@@ -29,30 +65,85 @@ public class ConfigAction extends AbstractAction {
         this.allowedVotes = allowedVotes;
     }
 
-    public List<String> parseAllowedVotes(String rawAllowedVotes) {
-        return Arrays.asList(rawAllowedVotes.trim().split(","));
+    public String getProjectKey() {
+        return projectKey;
     }
 
-    public String formatAllowedVotes(List<String> allowedVotes) {
-        String result = "";
-        for (Iterator<String> i = allowedVotes.iterator(); i.hasNext();) {
-            result += i.next();
-            if (i.hasNext()) {
-                result += ",";
+    public void setProjectKey(String projectKey) {
+        this.projectKey = projectKey == null || "".equals(projectKey.trim()) ? null : projectKey.trim();
+    }
+
+    public List<String> parseAllowedVotes(String rawAllowedVotes) {
+        List<String> result = new ArrayList<String>();
+        if (rawAllowedVotes == null) {
+            return result;
+        }
+        for (String vote : rawAllowedVotes.split(",")) {
+            if (!"".equals(vote.trim())) {
+                result.add(vote.trim());
             }
         }
         return result;
     }
 
+    public String formatAllowedVotes(List<String> allowedVotes) {
+        return String.join(",", allowedVotes);
+    }
+
     @Override
     public String doDefault() throws Exception {
-        setAllowedVotes(formatAllowedVotes(configService.getAllowedVotes()));
+        if (getProjectKey() != null && !configService.hasProjectDeck(getProjectKey())) {
+            setAllowedVotes("");
+        } else {
+            setAllowedVotes(formatAllowedVotes(configService.getAllowedVotes(getProjectKey())));
+        }
+        setEstimateField(configService.getEstimateFieldId());
+        setDigestMinutes(Integer.toString(configService.getDigestMinutes()));
+        setSlowRequestMillis(Integer.toString(configService.getSlowRequestMillis()));
         return INPUT;
     }
 
+    @Override
+    public void doValidation() {
+        if (getProjectKey() != null && projectManager.getProjectObjByKey(getProjectKey()) == null) {
+            addError("projectKey", "Project '" + getProjectKey() + "' not found.");
+        }
+        if (getProjectKey() == null && parseAllowedVotes(getAllowedVotes()).isEmpty()) {
+            addError("allowedVotes", "The global list of votes cannot be empty.");
+        }
+        if (getEstimateField() != null && !"".equals(getEstimateField())
+                && customFieldManager.getCustomFieldObject(getEstimateField()) == null) {
+            addError("estimateField", "Custom field '" + getEstimateField() + "' not found.");
+        }
+        if (getDigestMinutes() != null && !"".equals(getDigestMinutes())) {
+            try {
+                if (Integer.parseInt(getDigestMinutes()) < 0) {
+                    addError("digestMinutes", "Digest interval cannot be negative.");
+                }
+            } catch (NumberFormatException e) {
+                addError("digestMinutes", "Digest interval must be a number of minutes.");
+            }
+        }
+        if (getSlowRequestMillis() != null && !"".equals(getSlowRequestMillis())) {
+            try {
+                if (Integer.parseInt(getSlowRequestMillis()) < 0) {
+                    addError("slowRequestMillis", "Slow request threshold cannot be negative.");
+                }
+            } catch (NumberFormatException e) {
+                addError("slowRequestMillis", "Slow request threshold must be a number of milliseconds.");
+            }
+        }
+    }
+
     @Override
     public String doExecute() throws Exception {
-        configService.setAllowedVotes(parseAllowedVotes(getAllowedVotes()));
+        configService.setAllowedVotes(getProjectKey(), parseAllowedVotes(getAllowedVotes()));
+        configService.setEstimateFieldId(getEstimateField());
+        configService.setDigestMinutes(getDigestMinutes() == null || "".equals(getDigestMinutes())
+                ? 0 : Integer.parseInt(getDigestMinutes()));
+        if (getSlowRequestMillis() != null && !"".equals(getSlowRequestMillis())) {
+            configService.setSlowRequestMillis(Integer.parseInt(getSlowRequestMillis()));
+        }
         addMessage("Settings sucessfully saved.");
         return INPUT;
     }
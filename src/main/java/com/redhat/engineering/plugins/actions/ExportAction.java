@@ -0,0 +1,237 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.SessionIndex;
+import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports all votes of finished sessions of a project as CSV, newest session first. Sessions are
+ * read page by page from the project index and the voters of a page are resolved together, rows
+ * are written to the response as each page is read, so the export needs the same memory for ten
+ * sessions as for ten thousand. The date range is applied to the start times in the index before a
+ * session is loaded, and paging stops at the first page whose sessions all started before the
+ * range, as the index lists newest sessions first. Votes of sessions that haven't ended yet stay
+ * secret, as everywhere else.
+ */
+@SupportedMethods({RequestMethod.GET})
+public class ExportAction extends AbstractAction {
+    private static final int PAGE_SIZE = 100;
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final JiraAuthenticationContext authContext;
+    private final ProjectManager projectManager;
+    private final PermissionManager permissionManager;
+    private final SessionService sessionService;
+    private final SessionIndex sessionIndex;
+    private final VoteService voteService;
+    private final UserManager userManager;
+
+    // props
+    private String projectKey;
+    private String from;
+    private String to;
+
+    public ExportAction(JiraAuthenticationContext authContext, ProjectManager projectManager,
+                        PermissionManager permissionManager, SessionService sessionService,
+                        SessionIndex sessionIndex, VoteService voteService, UserManager userManager,
+                        ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.authContext = authContext;
+        this.projectManager = projectManager;
+        this.permissionManager = permissionManager;
+        this.sessionService = sessionService;
+        this.sessionIndex = sessionIndex;
+        this.voteService = voteService;
+        this.userManager = userManager;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public void setProjectKey(String projectKey) {
+        this.projectKey = projectKey == null ? null : projectKey.trim();
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!authContext.isLoggedInUser()) {
+            addErrorMessage("You must be logged in to be able to export votes.");
+            return ERROR;
+        }
+        return INPUT;
+    }
+
+    @Override
+    public void doValidation() {
+        if (!authContext.isLoggedInUser()) {
+            addErrorMessage("You must be logged in to be able to export votes.");
+            return;
+        }
+        if (getProjectKey() == null || "".equals(getProjectKey())) {
+            addError("projectKey", "Project is required.");
+        } else {
+            Project project = projectManager.getProjectObjByKey(getProjectKey());
+            // projects the user cannot browse are reported as missing
+            if (project == null || !permissionManager.hasPermission(ProjectPermissions.BROWSE_PROJECTS, project,
+                    authContext.getLoggedInUser())) {
+                addError("projectKey", "Project '" + getProjectKey() + "' not found.");
+            }
+        }
+        try {
+            parseDate(getFrom());
+        } catch (ParseException e) {
+            addError("from", "Date must be in format " + DATE_PATTERN + ".");
+        }
+        try {
+            parseDate(getTo());
+        } catch (ParseException e) {
+            addError("to", "Date must be in format " + DATE_PATTERN + ".");
+        }
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        Date fromDate = parseDate(getFrom());
+        Date toDate = parseDate(getTo());
+
+        HttpServletResponse response = getHttpResponse();
+        response.setContentType("text/csv; charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"poker-votes-" + getProjectKey() + ".csv\"");
+        PrintWriter writer = response.getWriter();
+        writeRow(writer, "Issue", "Voter", "Value", "Comment", "Session Start", "Session End", "Applied Estimate");
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        Long fromMillis = fromDate == null ? null : fromDate.getTime();
+        Long toMillis = toDate == null ? null : toDate.getTime() + DAY_MILLIS;
+        String cursor = null;
+        do {
+            SessionIndex.Page page = sessionIndex.query(getProjectKey(), null, Status.FINISHED, cursor, PAGE_SIZE);
+            cursor = page.getNextCursor();
+
+            Map<Session, List<Vote>> votes = new LinkedHashMap<Session, List<Vote>>();
+            Set<String> voterKeys = new HashSet<String>();
+            boolean allBefore = true;
+            for (int i = 0; i < page.getIssueKeys().size(); i++) {
+                long start = page.getStarts().get(i);
+                if (fromMillis != null && start < fromMillis) {
+                    continue;
+                }
+                allBefore = false;
+                if (toMillis != null && start >= toMillis) {
+                    continue;
+                }
+                // not kept in the request memo, the export may read thousands of sessions
+                Session session = sessionService.load(page.getIssueKeys().get(i));
+                if (session == null
+                        || sessionService.getStatus(session) != Status.FINISHED
+                        || (fromDate != null && session.getStart().before(fromDate))
+                        || (toDate != null && !session.getStart().before(new Date(toMillis)))
+                        || session.getIssue() == null) {
+                    continue;
+                }
+                List<Vote> sessionVotes = voteService.getVotesBySession(session);
+                for (Vote vote : sessionVotes) {
+                    voterKeys.add(vote.getVoterKey());
+                }
+                votes.put(session, sessionVotes);
+            }
+            // voters of the whole page at once, each user once however many sessions they voted in
+            Map<String, ApplicationUser> voters = new HashMap<String, ApplicationUser>();
+            for (String voterKey : voterKeys) {
+                voters.put(voterKey, userManager.getUserByKey(voterKey));
+            }
+
+            for (Map.Entry<Session, List<Vote>> sessionVotes : votes.entrySet()) {
+                Session session = sessionVotes.getKey();
+                String start = dateFormat.format(session.getStart());
+                String end = dateFormat.format(session.getEnd());
+                String estimate = session.getAppliedEstimate() == null ? "" : session.getAppliedEstimate().toString();
+                for (Vote vote : sessionVotes.getValue()) {
+                    ApplicationUser voter = voters.get(vote.getVoterKey());
+                    writeRow(writer, session.getIssueKey(), voter == null ? "" : voter.getName(),
+                            vote.getValue(), vote.getComment(), start, end, estimate);
+                }
+            }
+            writer.flush();
+            if (fromMillis != null && allBefore) {
+                // older pages only hold sessions that started even earlier
+                break;
+            }
+        } while (cursor != null);
+
+        return NONE;
+    }
+
+    private static Date parseDate(String date) throws ParseException {
+        if (date == null || "".equals(date.trim())) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN);
+        format.setLenient(false);
+        return format.parse(date.trim());
+    }
+
+    private static void writeRow(PrintWriter writer, String... values) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            String value = values[i] == null ? "" : values[i];
+            if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+                // keep spreadsheets from running comments as formulas
+                value = "'" + value;
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0) {
+                row.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                row.append(value);
+            }
+        }
+        writer.print(row.append("\r\n"));
+    }
+}
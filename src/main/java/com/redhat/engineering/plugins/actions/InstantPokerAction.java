@@ -2,19 +2,26 @@ package com.redhat.engineering.plugins.actions;
 
 import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
-import com.atlassian.jira.avatar.AvatarService;
-import com.atlassian.jira.plugin.userformat.UserFormats;
 import com.atlassian.jira.security.JiraAuthenticationContext;
-import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.redhat.engineering.plugins.domain.Group;
 import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.services.ActionMetrics;
 import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.UserFragmentCache;
 import com.redhat.engineering.plugins.services.ConfigService;
+import com.redhat.engineering.plugins.services.EstimateService;
+import com.redhat.engineering.plugins.services.GroupService;
+import com.redhat.engineering.plugins.services.PermissionEvaluator;
+import com.redhat.engineering.plugins.services.PokerRequestContext;
 import com.redhat.engineering.plugins.services.VoteService;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.bc.issue.IssueService;
 import com.atlassian.jira.issue.Issue;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Instant poker: auto-create session with defaults and show voting interface
@@ -24,18 +31,33 @@ import java.util.Date;
 public class InstantPokerAction extends VoteAction {
 
     private final SessionService sessionService;
-    private final PermissionManager permissionManager;
+    private final GroupService groupService;
+
+    // poker group whose members are expected to vote in a new session
+    private String groupId;
 
     public InstantPokerAction(JiraAuthenticationContext authContext,
                              SessionService sessionService,
                              VoteService voteService,
-                             UserFormats userFormats,
-                             AvatarService avatarService,
-                             PermissionManager permissionManager,
-                             ConfigService configService) {
-        super(authContext, sessionService, voteService, userFormats, avatarService, permissionManager, configService);
+                             PokerRequestContext requestContext,
+                             PermissionEvaluator permissionEvaluator,
+                             ConfigService configService,
+                             EstimateService estimateService,
+                             UserFragmentCache userFragmentCache,
+                             GroupService groupService,
+                             ActionMetrics actionMetrics) {
+        super(authContext, sessionService, voteService, requestContext, permissionEvaluator, configService,
+                estimateService, userFragmentCache, actionMetrics);
         this.sessionService = sessionService;
-        this.permissionManager = permissionManager;
+        this.groupService = groupService;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
     }
 
     @Override
@@ -54,7 +76,7 @@ public class InstantPokerAction extends VoteAction {
 
     private Session findOrCreateSession() {
         // Use injected sessionService
-        Session session = sessionService.get(getKey());
+        Session session = sessionService.getVisible(getKey());
 
         if (session == null) {
             // Create new session with 1-hour defaults
@@ -63,8 +85,10 @@ public class InstantPokerAction extends VoteAction {
             session.setAuthor(getLoggedInApplicationUser());
             session.setCreated(new Date());
             session.setStart(new Date());
-            session.setEnd(new Date(System.currentTimeMillis() + 3600000)); // +1 hour
+            session.setEnd(new Date(System.currentTimeMillis() + 3600000)); // +1 hour, or until the group voted
             sessionService.save(session);
+            // members of the group see the session as pending, are reminded and end it once all voted
+            sessionService.expectVoters(session, getGroupVoterKeys());
         } else {
             // If session exists but has ended, extend it by 1 hour from now
             if (System.currentTimeMillis() >= session.getEnd().getTime()) {
@@ -77,6 +101,29 @@ public class InstantPokerAction extends VoteAction {
         return session;
     }
 
+    private List<String> getGroupVoterKeys() {
+        List<String> voterKeys = new ArrayList<String>();
+        if (getGroupId() == null || "".equals(getGroupId())) {
+            return voterKeys;
+        }
+        Group group;
+        try {
+            group = groupService.get(Long.parseLong(getGroupId()));
+        } catch (NumberFormatException e) {
+            return voterKeys;
+        }
+        if (group == null) {
+            return voterKeys;
+        }
+        for (String name : group.getNames()) {
+            ApplicationUser user = getUserManager().getUserByName(name);
+            if (user != null) {
+                voterKeys.add(user.getKey());
+            }
+        }
+        return voterKeys;
+    }
+
     private Issue getIssueObject() {
         IssueService issueService = ComponentAccessor.getIssueService();
         // Use inherited getLoggedInApplicationUser() from parent class
@@ -0,0 +1,39 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.StorageMigrator;
+
+/**
+ * Shows the progress of the background storage migration and lets administrators run it again.
+ */
+@SupportedMethods({RequestMethod.GET, RequestMethod.POST})
+public class MigrationAction extends AbstractAction {
+    private final StorageMigrator storageMigrator;
+
+    public MigrationAction(StorageMigrator storageMigrator, ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.storageMigrator = storageMigrator;
+    }
+
+    public StorageMigrator getMigrator() {
+        return storageMigrator;
+    }
+
+    public String formatThroughput() {
+        return String.format("%.1f", storageMigrator.getThroughput());
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        return INPUT;
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        storageMigrator.restart();
+        addMessage("Migration restarted.");
+        return INPUT;
+    }
+}
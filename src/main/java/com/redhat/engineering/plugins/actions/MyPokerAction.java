@@ -0,0 +1,74 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.PokerRequestContext;
+import com.redhat.engineering.plugins.services.SessionIndex;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Sessions of the logged in user: the ones waiting for their vote and the ones they took part in.
+ */
+@SupportedMethods({RequestMethod.GET})
+public class MyPokerAction extends AbstractAction {
+    private static final int MAX_SESSIONS = 50;
+
+    private final SessionIndex sessionIndex;
+    private final JiraAuthenticationContext authContext;
+    private final IssueService issueService;
+    private final PokerRequestContext requestContext;
+
+    private List<SessionIndex.Membership> memberships;
+
+    public MyPokerAction(SessionIndex sessionIndex, JiraAuthenticationContext authContext,
+                         IssueService issueService, PokerRequestContext requestContext,
+                         ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.sessionIndex = sessionIndex;
+        this.authContext = authContext;
+        this.issueService = issueService;
+        this.requestContext = requestContext;
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        if (!authContext.isLoggedInUser()) {
+            addErrorMessage("You must be logged in to see your poker sessions.");
+            return ERROR;
+        }
+        return "list";
+    }
+
+    public List<SessionIndex.Membership> getPending() {
+        return sessionIndex.getPending(authContext.getLoggedInUser().getKey());
+    }
+
+    public List<SessionIndex.Membership> getMemberships() {
+        if (memberships == null) {
+            memberships = sessionIndex.getMemberships(authContext.getLoggedInUser().getKey());
+            if (memberships.size() > MAX_SESSIONS) {
+                memberships = memberships.subList(0, MAX_SESSIONS);
+            }
+        }
+        return memberships;
+    }
+
+    /**
+     * @return the issue, null if the user cannot browse it
+     */
+    public Issue getIssue(SessionIndex.Membership membership) {
+        IssueService.IssueResult issueResult = issueService.getIssue(authContext.getLoggedInUser(),
+                membership.getIssueKey());
+        return issueResult.isValid() ? issueResult.getIssue() : null;
+    }
+
+    public String formatDate(long millis) {
+        return requestContext.getDateTimeFormatter().format(new Date(millis));
+    }
+}
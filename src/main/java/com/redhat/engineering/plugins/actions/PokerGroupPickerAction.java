@@ -4,6 +4,7 @@ import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
 
 import com.redhat.engineering.plugins.domain.Group;
+import com.redhat.engineering.plugins.services.ActionMetrics;
 import com.redhat.engineering.plugins.services.GroupService;
 
 import java.util.Arrays;
@@ -26,7 +27,8 @@ public class PokerGroupPickerAction extends AbstractAction {
     private String name;
     private Boolean edit = false;
 
-    public PokerGroupPickerAction(GroupService groupService) {
+    public PokerGroupPickerAction(GroupService groupService, ActionMetrics actionMetrics) {
+        super(actionMetrics);
         this.groupService = groupService;
     }
 
@@ -0,0 +1,257 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.atlassian.jira.user.ApplicationUser;
+import com.redhat.engineering.plugins.domain.Round;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.RoundService;
+import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Creates refinement rounds and moves the facilitator and voters through their issue queue.
+ */
+@SupportedMethods({RequestMethod.GET, RequestMethod.POST})
+public class RoundAction extends AbstractAction {
+    private static final long DEF_DURATION_MINUTES = 15;
+
+    private final JiraAuthenticationContext authContext;
+    private final IssueService issueService;
+    private final PermissionManager permissionManager;
+    private final RoundService roundService;
+    private final SessionService sessionService;
+    private final VoteService voteService;
+
+    // props
+    private String id;
+    private String issueKeys;
+    private String participants;
+    private String duration = Long.toString(DEF_DURATION_MINUTES);
+    // position of the round the facilitator saw when moving it on
+    private String position;
+    private Round round;
+
+    public RoundAction(JiraAuthenticationContext authContext, IssueService issueService,
+                       PermissionManager permissionManager, RoundService roundService,
+                       SessionService sessionService, VoteService voteService,
+                       ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.authContext = authContext;
+        this.issueService = issueService;
+        this.permissionManager = permissionManager;
+        this.roundService = roundService;
+        this.sessionService = sessionService;
+        this.voteService = voteService;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getIssueKeys() {
+        return issueKeys;
+    }
+
+    public void setIssueKeys(String issueKeys) {
+        this.issueKeys = issueKeys;
+    }
+
+    public String getParticipants() {
+        return participants;
+    }
+
+    public void setParticipants(String participants) {
+        this.participants = participants;
+    }
+
+    public String getDuration() {
+        return duration;
+    }
+
+    public void setDuration(String duration) {
+        this.duration = duration;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public void setPosition(String position) {
+        this.position = position;
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!authContext.isLoggedInUser()) {
+            addErrorMessage("You must be logged in to be able to start a refinement round.");
+            return ERROR;
+        }
+        return INPUT;
+    }
+
+    @Override
+    public void doValidation() {
+        List<String> keys = parseList(getIssueKeys());
+        if (keys.isEmpty()) {
+            addError("issueKeys", "At least one issue is required.");
+        }
+        for (String issueKey : keys) {
+            IssueService.IssueResult issueResult = issueService.getIssue(getCurrentUser(), issueKey);
+            if (!issueResult.isValid() || issueResult.getIssue() == null) {
+                addError("issueKeys", "Issue '" + issueKey + "' not found.");
+            } else if (!permissionManager.hasPermission(ProjectPermissions.EDIT_ISSUES, issueResult.getIssue(),
+                    getCurrentUser())) {
+                addError("issueKeys", "You don't have permission to edit issue '" + issueKey + "'.");
+            } else if (sessionService.get(issueKey) != null) {
+                // a round never replaces a session and its votes, it would skip the issue
+                addError("issueKeys", "Issue '" + issueKey + "' already has a session, delete it first.");
+            }
+        }
+
+        for (String participant : parseList(getParticipants())) {
+            if (getUserManager().getUserByName(participant) == null) {
+                addError("participants", "User '" + participant + "' not found.");
+            }
+        }
+
+        try {
+            if (Long.parseLong(getDuration()) <= 0) {
+                addError("duration", "Duration must be positive.");
+            }
+        } catch (NumberFormatException e) {
+            addError("duration", "Duration must be a number of minutes.");
+        }
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        Round round = new Round();
+        round.setAuthor(getCurrentUser());
+        round.setCreated(new Date());
+        round.setIssueKeys(parseList(getIssueKeys()));
+        round.setSessionDuration(Long.parseLong(getDuration()) * 60 * 1000L);
+
+        List<String> participantKeys = new ArrayList<String>();
+        for (String participant : parseList(getParticipants())) {
+            participantKeys.add(getUserManager().getUserByName(participant).getKey());
+        }
+        round.setParticipantKeys(participantKeys);
+
+        roundService.create(round);
+        return getRedirect("PokerRound!view.jspa?id=" + round.getId());
+    }
+
+    public String doView() throws Exception {
+        if (getRound() == null) {
+            addErrorMessage("This refinement round does not exist.");
+            return ERROR;
+        }
+        return "view";
+    }
+
+    @SupportedMethods({RequestMethod.POST})
+    public String doNext() throws Exception {
+        Round round = getRound();
+        if (round == null) {
+            addErrorMessage("This refinement round does not exist.");
+            return ERROR;
+        }
+        if (!round.getAuthor().equals(getCurrentUser())) {
+            addErrorMessage("Only the facilitator can move the round to the next issue.");
+            return ERROR;
+        }
+
+        int seenPosition;
+        try {
+            seenPosition = Integer.parseInt(getPosition());
+        } catch (NumberFormatException e) {
+            addErrorMessage("The round position is missing, reload the round and try again.");
+            return ERROR;
+        }
+
+        // a repeated or stale submit leaves the round where it is, the view shows where it got to
+        roundService.advance(round, seenPosition);
+        return getRedirect("PokerRound!view.jspa?id=" + round.getId());
+    }
+
+    public Round getRound() {
+        if (round == null && getId() != null) {
+            try {
+                round = roundService.get(Long.parseLong(getId()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return round;
+    }
+
+    public Session getCurrentSession() {
+        Round round = getRound();
+        if (round == null || round.isFinished()) {
+            return null;
+        }
+        return sessionService.getVisible(round.getCurrentIssueKey());
+    }
+
+    public boolean isFacilitator() {
+        Round round = getRound();
+        return round != null && round.getAuthor().equals(getCurrentUser());
+    }
+
+    public boolean isVoter(Session session) {
+        return voteService.isVoter(session, getCurrentUser());
+    }
+
+    public Integer getVotesSize(Session session) {
+        return voteService.getVoteValsBySession(session).size();
+    }
+
+    public Status getStatus(Session session) {
+        return sessionService.getStatus(session);
+    }
+
+    public List<ApplicationUser> getParticipantUsers() {
+        List<ApplicationUser> users = new ArrayList<ApplicationUser>();
+        for (String participantKey : getRound().getParticipantKeys()) {
+            ApplicationUser user = getUserManager().getUserByKey(participantKey);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    private List<String> parseList(String raw) {
+        Set<String> result = new LinkedHashSet<String>();
+        if (raw != null) {
+            for (String item : raw.split("[,\\s]+")) {
+                if (!"".equals(item.trim())) {
+                    result.add(item.trim());
+                }
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    private ApplicationUser getCurrentUser() {
+        return authContext.getUser();
+    }
+}
@@ -4,30 +4,26 @@ import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
 
 import com.atlassian.jira.bc.issue.IssueService;
-import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.datetime.DateTimeFormatter;
 import com.atlassian.jira.datetime.DateTimeStyle;
 import com.atlassian.jira.issue.Issue;
-import com.atlassian.jira.mail.Email;
 import com.atlassian.jira.security.JiraAuthenticationContext;
 import com.atlassian.jira.security.PermissionManager;
 import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
-import com.atlassian.mail.queue.SingleMailQueueItem;
-import com.atlassian.templaterenderer.TemplateRenderer;
-import com.google.common.collect.Maps;
 import com.redhat.engineering.plugins.domain.Session;
 import com.redhat.engineering.plugins.domain.Status;
 import com.redhat.engineering.plugins.exceptions.UserNotFoundException;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.NotificationService;
 import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author vdedik@redhat.com
@@ -41,24 +37,29 @@ public class SessionAction extends AbstractAction {
     private final SessionService sessionService;
     private final DateTimeFormatter dateTimeFormatter;
     private final PermissionManager permissionManager;
-    private final TemplateRenderer templateRenderer;
+    private final NotificationService notificationService;
+    private final VoteService voteService;
 
     // properties
     private String key;
     private String start;
     private String end;
+    // users expected to vote, they are notified, reminded and end the session once all voted
     private String notifyUserList;
     private Boolean edit = false;
 
     public SessionAction(IssueService issueService, JiraAuthenticationContext authContext,
                          SessionService sessionService, DateTimeFormatter dateTimeFormatter,
-                         PermissionManager permissionManager, TemplateRenderer templateRenderer) {
+                         PermissionManager permissionManager, NotificationService notificationService,
+                         VoteService voteService, ActionMetrics actionMetrics) {
+        super(actionMetrics);
         this.issueService = issueService;
         this.authContext = authContext;
         this.sessionService = sessionService;
         this.dateTimeFormatter = dateTimeFormatter.forLoggedInUser();
         this.permissionManager = permissionManager;
-        this.templateRenderer = templateRenderer;
+        this.notificationService = notificationService;
+        this.voteService = voteService;
     }
 
     public Boolean getEdit() {
@@ -104,14 +105,28 @@ public class SessionAction extends AbstractAction {
     private List<ApplicationUser> parsedNotifyUserList;
 
     public List<ApplicationUser> parseNotifyUserList() {
-        if (parsedNotifyUserList != null) {
-            return parsedNotifyUserList;
+        if (parsedNotifyUserList == null) {
+            parsedNotifyUserList = parseUserList(getNotifyUserList());
         }
+        return parsedNotifyUserList;
+    }
+
+    private List<String> getUserKeys(List<ApplicationUser> users) {
+        List<String> userKeys = new ArrayList<String>();
+        for (ApplicationUser user : users) {
+            userKeys.add(user.getKey());
+        }
+        return userKeys;
+    }
 
+    private List<ApplicationUser> parseUserList(String rawList) {
         List<ApplicationUser> result = new ArrayList<ApplicationUser>();
-        if (!"".equals(getNotifyUserList())) {
-            String[] rawResult = getNotifyUserList().split(",");
+        if (rawList != null && !"".equals(rawList.trim())) {
+            String[] rawResult = rawList.split(",");
             for (String rawUser : rawResult) {
+                if ("".equals(rawUser.trim())) {
+                    continue;
+                }
                 ApplicationUser user = getUserManager().getUserByName(rawUser.trim());
                 if (user == null) {
                     throw new UserNotFoundException(rawUser);
@@ -119,8 +134,6 @@ public class SessionAction extends AbstractAction {
                 result.add(user);
             }
         }
-
-        parsedNotifyUserList = result;
         return result;
     }
 
@@ -216,8 +229,9 @@ public class SessionAction extends AbstractAction {
         session.setStart(dateTimeFormatter.parse(getStart()));
         session.setEnd(dateTimeFormatter.parse(getEnd()));
         sessionService.save(session);
+        sessionService.expectVoters(session, getUserKeys(parseNotifyUserList()));
 
-        sendEmailToNotifyUsers();
+        sendEmailToNotifyUsers(parseNotifyUserList());
 
         this.addMessage("New Session has been successfully created.");
         return SUCCESS;
@@ -229,32 +243,24 @@ public class SessionAction extends AbstractAction {
         session.setStart(dateTimeFormatter.parse(getStart()));
         session.setEnd(dateTimeFormatter.parse(getEnd()));
         sessionService.update(session);
+        List<String> previousVoterKeys = voteService.getExpectedVoterKeys(session.getIssueKey());
+        sessionService.expectVoters(session, getUserKeys(parseNotifyUserList()));
 
-        sendEmailToNotifyUsers();
+        // only users added to the expected voters hear about the session for the first time
+        List<ApplicationUser> addedUsers = new ArrayList<ApplicationUser>();
+        for (ApplicationUser user : parseNotifyUserList()) {
+            if (!previousVoterKeys.contains(user.getKey())) {
+                addedUsers.add(user);
+            }
+        }
+        sendEmailToNotifyUsers(addedUsers);
 
         this.addMessage("Session has been successfully updated.");
         return SUCCESS;
     }
 
-    public void sendEmailToNotifyUsers() throws Exception {
-        for (ApplicationUser user : parseNotifyUserList()) {
-            Email em = new Email(user.getEmailAddress());
-            em.setSubject("New planning poker session has been created for issue " + getIssueObject().getKey() + ".");
-
-            StringWriter body = new StringWriter();
-            Map<String, Object> context = Maps.newHashMap();
-            context.put("issue", getIssueObject());
-            String baseUrl = getHttpRequest().getRequestURL().toString()
-                    .replaceAll(getHttpRequest().getServletPath(), "");
-            context.put("baseUrl", baseUrl);
-            templateRenderer.render("views/emails/notify.vm", context, body);
-
-            em.setBody(body.toString());
-            em.setMimeType("text/html");
-            SingleMailQueueItem smqi = new SingleMailQueueItem(em);
-
-            ComponentAccessor.getMailQueue().addItem(smqi);
-        }
+    public void sendEmailToNotifyUsers(List<ApplicationUser> users) throws Exception {
+        notificationService.notify(users, getIssueObject(), !this.edit);
     }
 
     public String doDelete() throws Exception {
@@ -263,7 +269,7 @@ public class SessionAction extends AbstractAction {
             this.addErrorMessage("This session does not exist.");
             return ERROR;
         }
-        if (!session.getAuthor().equals(authContext.getUser())) {
+        if (!session.isAuthor(authContext.getUser())) {
             this.addErrorMessage("You must be the owner of the session to be able to delete it.");
             return ERROR;
         }
@@ -277,12 +283,21 @@ public class SessionAction extends AbstractAction {
     public String doEdit() throws Exception {
         Session session = getSessionObject();
         this.edit = true;
-        if (!session.getAuthor().equals(authContext.getUser())) {
+        if (!session.isAuthor(authContext.getUser())) {
             return ERROR;
         }
 
         this.start = this.dateTimeFormatter.withStyle(DateTimeStyle.DATE_TIME_PICKER).format(session.getStart());
         this.end = this.dateTimeFormatter.withStyle(DateTimeStyle.DATE_TIME_PICKER).format(session.getEnd());
+        // the form replaces the expected voters, so it starts with the current ones
+        StringBuilder userNames = new StringBuilder();
+        for (String userKey : voteService.getExpectedVoterKeys(session.getIssueKey())) {
+            ApplicationUser user = getUserManager().getUserByKey(userKey);
+            if (user != null) {
+                userNames.append(userNames.length() > 0 ? ", " : "").append(user.getUsername());
+            }
+        }
+        this.notifyUserList = userNames.toString();
 
         return INPUT;
     }
@@ -291,7 +306,7 @@ public class SessionAction extends AbstractAction {
 
     private Session getSessionObject() {
         if (currentSession == null) {
-            currentSession = sessionService.get(getKey());
+            currentSession = sessionService.getVisible(getKey());
         }
         return currentSession;
     }
@@ -4,13 +4,18 @@ import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
 
 import com.atlassian.jira.security.JiraAuthenticationContext;
-import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.user.ApplicationUser;
 import com.redhat.engineering.plugins.domain.Session;
 import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.PermissionEvaluator;
+import com.redhat.engineering.plugins.services.SessionIndex;
 import com.redhat.engineering.plugins.services.SessionService;
 import com.redhat.engineering.plugins.services.VoteService;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,38 +28,109 @@ public class ShowPokerSessionsAction extends AbstractAction {
     private final SessionService sessionService;
     private final JiraAuthenticationContext authContext;
     private final VoteService voteService;
-    private final PermissionManager permissionManager;
+    private final PermissionEvaluator permissionEvaluator;
+    private final SessionIndex sessionIndex;
 
     //props
     private List<Session> sessions;
-    private String page = "1";
-    private Integer pageCount;
+    private String nextCursor;
+    private String project;
+    private String author;
+    private String status;
+    private String cursor;
 
     public ShowPokerSessionsAction(SessionService sessionService, JiraAuthenticationContext authContext,
-                                   VoteService voteService, PermissionManager permissionManager) {
+                                   VoteService voteService, PermissionEvaluator permissionEvaluator,
+                                   SessionIndex sessionIndex, ActionMetrics actionMetrics) {
+        super(actionMetrics);
         this.sessionService = sessionService;
         this.authContext = authContext;
         this.voteService = voteService;
-        this.permissionManager = permissionManager;
+        this.permissionEvaluator = permissionEvaluator;
+        this.sessionIndex = sessionIndex;
     }
 
-    public String getPage() {
-        return page;
+    public String getProject() {
+        return project;
     }
 
-    public void setPage(String page) {
-        this.page = page;
+    public void setProject(String project) {
+        this.project = project;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
     }
 
     public List<Session> getSessions() {
         if (sessions == null) {
-            Integer page = Integer.parseInt(getPage());
-            Integer offset = PAGE_COUNT * (page - 1);
-            sessions = this.sessionService.getAll(offset, PAGE_COUNT);
+            sessions = new ArrayList<Session>();
+            String authorKey = null;
+            if (!isBlank(getAuthor())) {
+                ApplicationUser user = getUserManager().getUserByName(getAuthor().trim());
+                if (user == null) {
+                    // nobody by that name has sessions
+                    return sessions;
+                }
+                authorKey = user.getKey();
+            }
+            String projectKey = isBlank(getProject()) ? null : getProject().trim().toUpperCase();
+
+            SessionIndex.Page page = sessionIndex.query(projectKey, authorKey, getStatusFilter(), getCursor(), PAGE_COUNT);
+            for (String issueKey : page.getIssueKeys()) {
+                // issues the user cannot browse are left out, so a page can be shorter
+                Session session = sessionService.getVisible(issueKey);
+                if (session != null) {
+                    sessions.add(session);
+                }
+            }
+            nextCursor = page.getNextCursor();
         }
         return sessions;
     }
 
+    /**
+     * @return query string of the next page, null on the last page
+     */
+    public String getNextQuery() {
+        getSessions();
+        if (nextCursor == null) {
+            return null;
+        }
+        return getFilterQuery() + "&cursor=" + encode(nextCursor);
+    }
+
+    /**
+     * @return query string of the first page with the current filters
+     */
+    public String getFilterQuery() {
+        return "project=" + encode(getProject()) + "&author=" + encode(getAuthor()) + "&status=" + encode(getStatus());
+    }
+
+    public Status[] getStatuses() {
+        return Status.values();
+    }
+
     @Override
     public String doExecute() throws Exception {
         return "list";
@@ -64,13 +140,6 @@ public class ShowPokerSessionsAction extends AbstractAction {
         return this.sessionService.getStatus(session);
     }
 
-    public Integer getPageCount() {
-        if (pageCount == null) {
-            pageCount = (int) Math.ceil(this.sessionService.count() / (float) PAGE_COUNT);
-        }
-        return pageCount;
-    }
-
     public Boolean isVoter(Session session) {
         return voteService.isVoter(session, authContext.getUser());
     }
@@ -80,10 +149,36 @@ public class ShowPokerSessionsAction extends AbstractAction {
     }
 
     public boolean hasOwnerPermission(Session session) {
-        return session.getAuthor().equals(authContext.getUser());
+        return session.isAuthor(authContext.getUser());
     }
 
     public boolean hasVotePermission(Session session) {
-        return permissionManager.hasPermission(Permissions.EDIT_ISSUE, session.getIssue(), authContext.getUser());
+        return permissionEvaluator.canVoteInList(session.getIssue(), authContext.getUser());
+    }
+
+    private Status getStatusFilter() {
+        if (isBlank(getStatus())) {
+            return null;
+        }
+        try {
+            return Status.valueOf(getStatus());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static String encode(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,66 @@
+package com.redhat.engineering.plugins.actions;
+
+import com.atlassian.jira.security.request.RequestMethod;
+import com.atlassian.jira.security.request.SupportedMethods;
+import com.redhat.engineering.plugins.services.ActionMetrics;
+import com.redhat.engineering.plugins.services.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Shows the latency histograms of poker actions over the last hour.
+ */
+@SupportedMethods({RequestMethod.GET})
+public class TimingAction extends AbstractAction {
+    private final ActionMetrics actionMetrics;
+
+    private Map<String, long[]> counts;
+
+    public TimingAction(ActionMetrics actionMetrics) {
+        super(actionMetrics);
+        this.actionMetrics = actionMetrics;
+    }
+
+    public Map<String, long[]> getCounts() {
+        if (counts == null) {
+            counts = actionMetrics.getCounts();
+        }
+        return counts;
+    }
+
+    public long[] getBounds() {
+        return LatencyHistogram.BOUNDS;
+    }
+
+    public String formatBound(int bucket) {
+        long bound = LatencyHistogram.BOUNDS[bucket];
+        return bound == Long.MAX_VALUE ? "slower" : "<= " + bound + " ms";
+    }
+
+    public long getTotal(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public String formatPercentile(long[] counts, double percentile) {
+        long bound = LatencyHistogram.getPercentile(counts, percentile);
+        if (bound < 0) {
+            return "-";
+        }
+        return bound == Long.MAX_VALUE ? "> " + LatencyHistogram.BOUNDS[LatencyHistogram.BOUNDS.length - 2] + " ms"
+                : "<= " + bound + " ms";
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        return INPUT;
+    }
+
+    @Override
+    public String doExecute() throws Exception {
+        return INPUT;
+    }
+}
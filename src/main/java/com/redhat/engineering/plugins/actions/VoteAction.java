@@ -3,37 +3,28 @@ package com.redhat.engineering.plugins.actions;
 import com.atlassian.jira.security.request.RequestMethod;
 import com.atlassian.jira.security.request.SupportedMethods;
 
-import com.atlassian.jira.avatar.Avatar;
-import com.atlassian.jira.avatar.AvatarService;
-import com.atlassian.jira.plugin.userformat.UserFormats;
-import com.atlassian.jira.plugin.userformat.UserFormatter;
 import com.atlassian.jira.security.JiraAuthenticationContext;
-import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
-import com.google.common.collect.Maps;
+import com.redhat.engineering.plugins.domain.Deck;
 import com.redhat.engineering.plugins.domain.Session;
 import com.redhat.engineering.plugins.domain.Status;
 import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException;
+import com.redhat.engineering.plugins.exceptions.InvalidVoteException;
+import com.redhat.engineering.plugins.services.ActionMetrics;
 import com.redhat.engineering.plugins.services.ConfigService;
+import com.redhat.engineering.plugins.services.EstimateService;
+import com.redhat.engineering.plugins.services.PermissionEvaluator;
+import com.redhat.engineering.plugins.services.PokerRequestContext;
 import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.UserFragmentCache;
 import com.redhat.engineering.plugins.services.VoteService;
 
-import com.atlassian.jira.issue.Issue;
-import com.atlassian.jira.issue.MutableIssue;
-import com.atlassian.jira.issue.ModifiedValue;
-import com.atlassian.jira.issue.fields.CustomField;
-import com.atlassian.jira.issue.util.DefaultIssueChangeHolder;
-import com.atlassian.jira.component.ComponentAccessor;
-import com.atlassian.jira.datetime.DateTimeFormatter;
-import com.atlassian.jira.datetime.DateTimeStyle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -48,10 +39,11 @@ public class VoteAction extends AbstractAction {
     private final JiraAuthenticationContext authContext;
     private final SessionService sessionService;
     private final VoteService voteService;
-    private final UserFormats userFormats;
-    private final AvatarService avatarService;
-    private final PermissionManager permissionManager;
+    private final PokerRequestContext requestContext;
+    private final UserFragmentCache userFragmentCache;
+    private final PermissionEvaluator permissionEvaluator;
     private final ConfigService configService;
+    private final EstimateService estimateService;
 
     // properties
     private String key;
@@ -62,15 +54,19 @@ public class VoteAction extends AbstractAction {
     private String finalValue;
 
     public VoteAction(JiraAuthenticationContext authContext, SessionService sessionService,
-                      VoteService voteService, UserFormats userFormats, AvatarService avatarService,
-                      PermissionManager permissionManager, ConfigService configService) {
+                      VoteService voteService, PokerRequestContext requestContext,
+                      PermissionEvaluator permissionEvaluator, ConfigService configService,
+                      EstimateService estimateService, UserFragmentCache userFragmentCache,
+                      ActionMetrics actionMetrics) {
+        super(actionMetrics);
         this.authContext = authContext;
         this.sessionService = sessionService;
         this.voteService = voteService;
-        this.userFormats = userFormats;
-        this.avatarService = avatarService;
-        this.permissionManager = permissionManager;
+        this.requestContext = requestContext;
+        this.permissionEvaluator = permissionEvaluator;
         this.configService = configService;
+        this.estimateService = estimateService;
+        this.userFragmentCache = userFragmentCache;
     }
 
     public String getKey() {
@@ -115,11 +111,19 @@ public class VoteAction extends AbstractAction {
 
     public List<String> getAllowedVotes() {
         if (allowedVotes == null) {
-            allowedVotes = configService.getAllowedVotes();
+            allowedVotes = getDeck().getValues();
         }
         return allowedVotes;
     }
 
+    public Deck getDeck() {
+        Session session = getSessionObject();
+        if (session == null) {
+            return configService.getDeck();
+        }
+        return voteService.getDeck(session);
+    }
+
     @Override
     public String doDefault() throws Exception {
 
@@ -169,7 +173,7 @@ public class VoteAction extends AbstractAction {
             return ERROR;
         }
 
-        if (!permissionManager.hasPermission(Permissions.EDIT_ISSUE, session.getIssue(), getCurrentUser())) {
+        if (!permissionEvaluator.canVote(session.getIssue(), getCurrentUser())) {
             addErrorMessage("You don't have permission to vote.");
             return ERROR;
         }
@@ -179,7 +183,15 @@ public class VoteAction extends AbstractAction {
         vote.setVoter(getCurrentUser());
         vote.setSession(session);
         vote.setComment(getVoteComment());
-        voteService.save(vote);
+        try {
+            voteService.save(vote);
+        } catch (InvalidVoteException e) {
+            addErrorMessage(e.getMessage());
+            return ERROR;
+        } catch (ConcurrentUpdateException e) {
+            addErrorMessage("Your vote could not be saved because the session is busy. Please try again.");
+            return ERROR;
+        }
 
         this.addMessage("Your vote has been successfully saved.");
         return SUCCESS;
@@ -195,9 +207,9 @@ public class VoteAction extends AbstractAction {
             return ERROR;
         }
 
-        log.info("Session found, author: " + session.getAuthor().getKey() + ", current user: " + getCurrentUser().getKey());
+        log.info("Session found, author: " + session.getAuthorKey() + ", current user: " + getCurrentUser().getKey());
 
-        if (!session.getAuthor().equals(getCurrentUser())) {
+        if (!session.isAuthor(getCurrentUser())) {
             addErrorMessage("Only the session creator can end the session.");
             return ERROR;
         }
@@ -215,7 +227,12 @@ public class VoteAction extends AbstractAction {
 
     private String doApplyEstimate() throws Exception {
         Session session = getSessionObject();
-        if (!session.getAuthor().equals(getCurrentUser())) {
+        if (session == null) {
+            addErrorMessage("Session not found. Please ensure the planning poker session exists.");
+            return ERROR;
+        }
+
+        if (!session.isAuthor(getCurrentUser())) {
             addErrorMessage("Only the session creator can apply estimates.");
             return ERROR;
         }
@@ -225,18 +242,22 @@ public class VoteAction extends AbstractAction {
             return ERROR;
         }
 
-        // Update customfield_10205
-        Issue issue = session.getIssue();
-        CustomField estimateField = ComponentAccessor.getCustomFieldManager()
-            .getCustomFieldObject("customfield_10205");
-
-        if (estimateField != null) {
-            MutableIssue mutableIssue = ComponentAccessor.getIssueManager()
-                .getIssueObject(issue.getId());
-            Double value = Double.parseDouble(getFinalValue());
-            estimateField.updateValue(null, mutableIssue,
-                new ModifiedValue(mutableIssue.getCustomFieldValue(estimateField), value),
-                new DefaultIssueChangeHolder());
+        Double value;
+        try {
+            value = Double.parseDouble(getFinalValue());
+        } catch (NumberFormatException | NullPointerException e) {
+            addErrorMessage("Estimate '" + getFinalValue() + "' is not a number.");
+            return ERROR;
+        }
+        if (value.isNaN() || value.isInfinite()) {
+            addErrorMessage("Estimate '" + getFinalValue() + "' is not a finite number.");
+            return ERROR;
+        }
+
+        Map<String, String> errors = estimateService.apply(Collections.singletonMap(session, value));
+        if (!errors.isEmpty()) {
+            addErrorMessage(errors.get(session.getIssueKey()));
+            return ERROR;
         }
 
         addMessage("Estimate " + getFinalValue() + " applied to issue.");
@@ -280,14 +301,11 @@ public class VoteAction extends AbstractAction {
     }
 
     public String getUserHtml(ApplicationUser user) {
-        Map<String, Object> params = Maps.newHashMap();
-        params.put("avatarURL", getAvatarURL(user));
-        UserFormatter userFormatter = userFormats.formatter("avatarFullNameHover");
-        return userFormatter.formatUserkey(user.getKey(), "poker-author", params);
+        return userFragmentCache.getUserHtml(user, UserFragmentCache.DEF_FORMAT, "poker-author");
     }
 
     public String getAvatarURL(ApplicationUser user) {
-        return avatarService.getAvatarUrlNoPermCheck(user, Avatar.Size.NORMAL).toString();
+        return requestContext.getAvatarUrl(user);
     }
 
     public List<ApplicationUser> getVoters() {
@@ -299,7 +317,7 @@ public class VoteAction extends AbstractAction {
 
     private Session getSessionObject() {
         if (currentSession == null) {
-            currentSession = sessionService.get(getKey());
+            currentSession = sessionService.getVisible(getKey());
         }
         return currentSession;
     }
@@ -309,43 +327,20 @@ public class VoteAction extends AbstractAction {
     }
 
     public Map<String, Object> getSessionStats() {
-        Session session = getSessionObject();
-        List<Vote> votes = voteService.getVotesBySession(session);
-
-        List<Double> numericVotes = new ArrayList<>();
-        for (Vote vote : votes) {
-            String val = vote.getValue();
-            if (val != null && val.matches("\\d+(\\.\\d+)?")) {
-                numericVotes.add(Double.parseDouble(val));
-            }
-        }
-
-        if (numericVotes.isEmpty()) {
-            return Collections.emptyMap();
-        }
-
-        double sum = 0;
-        double min = Double.MAX_VALUE;
-        double max = Double.MIN_VALUE;
-
-        for (Double v : numericVotes) {
-            sum += v;
-            if (v < min) min = v;
-            if (v > max) max = v;
-        }
-
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("min", min);
-        stats.put("max", max);
-        stats.put("average", sum / numericVotes.size());
-        stats.put("count", numericVotes.size());
-
-        return stats;
+        return voteService.getStats(getSessionObject());
     }
 
     public boolean isCreator() {
         Session session = getSessionObject();
-        return session != null && session.getAuthor().equals(getCurrentUser());
+        return session != null && session.isAuthor(getCurrentUser());
+    }
+
+    /**
+     * @return votes of expected voters and number of expected voters, null if the session has none
+     */
+    public int[] getQuorum() {
+        Session session = getSessionObject();
+        return session == null ? null : voteService.getQuorum(session);
     }
 
     public boolean isSessionEnded() {
@@ -360,17 +355,11 @@ public class VoteAction extends AbstractAction {
     }
 
     public String formatDate(Date date) {
-        DateTimeFormatter formatter = ComponentAccessor.getComponent(DateTimeFormatter.class)
-                .forLoggedInUser()
-                .withStyle(DateTimeStyle.RELATIVE_ALWAYS_WITH_TIME);
-        return formatter.format(date);
+        return requestContext.getDateTimeFormatter().format(date);
     }
 
     public String getAuthorHtml(Session session) {
-        Map<String, Object> params = Maps.newHashMap();
-        params.put("avatarURL", getAvatarURL(session.getAuthor()));
-        UserFormatter userFormatter = userFormats.formatter("avatarFullNameHover");
-        return userFormatter.formatUserkey(session.getAuthor().getKey(), "poker-author", params);
+        return userFragmentCache.getUserHtml(session.getAuthor(), UserFragmentCache.DEF_FORMAT, "poker-author");
     }
 
     public Integer getVotesSize(Session session) {
@@ -0,0 +1,89 @@
+package com.redhat.engineering.plugins.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of cards a team can vote with. Card positions (ordinals) and
+ * numeric values are computed once when the deck is built. Every saved deck gets
+ * its own version so that votes stored as ordinals can always be decoded, even
+ * after the deck has been changed.
+ */
+public class Deck {
+    public static final long DEFAULT_VERSION = 0L;
+
+    private final long version;
+    private final List<String> values;
+    private final Map<String, Integer> ordinals;
+    private final Double[] numericValues;
+
+    public Deck(long version, List<String> values) {
+        this.version = version;
+        List<String> cards = new ArrayList<String>();
+        Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        for (String value : values) {
+            String card = value.trim();
+            if (!card.isEmpty() && !ordinals.containsKey(card)) {
+                ordinals.put(card, cards.size());
+                cards.add(card);
+            }
+        }
+
+        this.values = Collections.unmodifiableList(cards);
+        this.ordinals = ordinals;
+        this.numericValues = new Double[cards.size()];
+        for (int i = 0; i < cards.size(); i++) {
+            numericValues[i] = parseNumeric(cards.get(i));
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean contains(String value) {
+        return value != null && ordinals.containsKey(value);
+    }
+
+    /**
+     * @return position of the card in the deck or -1 if the card is not part of it
+     */
+    public int getOrdinal(String value) {
+        Integer ordinal = value == null ? null : ordinals.get(value);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String getValue(int ordinal) {
+        return values.get(ordinal);
+    }
+
+    /**
+     * @return numeric value of the card or null for non-numeric cards such as "?"
+     */
+    public Double getNumericValue(int ordinal) {
+        return numericValues[ordinal];
+    }
+
+    public Double getNumericValue(String value) {
+        int ordinal = getOrdinal(value);
+        return ordinal < 0 ? null : numericValues[ordinal];
+    }
+
+    private static Double parseNumeric(String card) {
+        if (!card.matches("\\d+(\\.\\d+)?")) {
+            return null;
+        }
+        return Double.parseDouble(card);
+    }
+}
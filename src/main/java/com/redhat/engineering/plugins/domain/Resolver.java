@@ -0,0 +1,11 @@
+package com.redhat.engineering.plugins.domain;
+
+/**
+ * Looks up the object behind a key when a domain object is first asked for it.
+ */
+public interface Resolver<T> {
+    /**
+     * @return the object, null if it does not exist or cannot be seen by the current user
+     */
+    T resolve(String key);
+}
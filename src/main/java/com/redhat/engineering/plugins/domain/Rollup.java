@@ -0,0 +1,84 @@
+package com.redhat.engineering.plugins.domain;
+
+/**
+ * Running totals of finished sessions for one project or one user. Averages are derived from the
+ * totals, so reading a rollup never needs to look at the sessions themselves.
+ */
+public class Rollup {
+    private long sessions;
+    private long votes;
+    private long consensus;
+    private double dispersionSum;
+    private long estimated;
+    private double deltaSum;
+    private double absDeltaSum;
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(long sessions) {
+        this.sessions = sessions;
+    }
+
+    public long getVotes() {
+        return votes;
+    }
+
+    public void setVotes(long votes) {
+        this.votes = votes;
+    }
+
+    /**
+     * @return number of sessions in which all voters picked the same card
+     */
+    public long getConsensus() {
+        return consensus;
+    }
+
+    public void setConsensus(long consensus) {
+        this.consensus = consensus;
+    }
+
+    /**
+     * @return sum of the standard deviations of the numeric votes, per session for projects and
+     * sum of the distances from the session average, per vote for users
+     */
+    public double getDispersionSum() {
+        return dispersionSum;
+    }
+
+    public void setDispersionSum(double dispersionSum) {
+        this.dispersionSum = dispersionSum;
+    }
+
+    /**
+     * @return number of sessions whose final estimate was applied to the issue
+     */
+    public long getEstimated() {
+        return estimated;
+    }
+
+    public void setEstimated(long estimated) {
+        this.estimated = estimated;
+    }
+
+    /**
+     * @return sum of the differences between applied estimates and vote averages
+     */
+    public double getDeltaSum() {
+        return deltaSum;
+    }
+
+    public void setDeltaSum(double deltaSum) {
+        this.deltaSum = deltaSum;
+    }
+
+    public double getAbsDeltaSum() {
+        return absDeltaSum;
+    }
+
+    public void setAbsDeltaSum(double absDeltaSum) {
+        this.absDeltaSum = absDeltaSum;
+    }
+}
@@ -0,0 +1,97 @@
+package com.redhat.engineering.plugins.domain;
+
+import com.atlassian.jira.user.ApplicationUser;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Refinement round, an ordered queue of issues estimated one after another. Each issue gets its
+ * own session when the round reaches it.
+ */
+public class Round {
+    private Long id;
+    private ApplicationUser author;
+    private Date created;
+    private List<String> issueKeys = new ArrayList<String>();
+    private List<String> participantKeys = new ArrayList<String>();
+    private int position;
+    private long sessionDuration;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public ApplicationUser getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(ApplicationUser author) {
+        this.author = author;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public List<String> getIssueKeys() {
+        return issueKeys;
+    }
+
+    public void setIssueKeys(List<String> issueKeys) {
+        this.issueKeys = issueKeys;
+    }
+
+    public List<String> getParticipantKeys() {
+        return participantKeys;
+    }
+
+    public void setParticipantKeys(List<String> participantKeys) {
+        this.participantKeys = participantKeys;
+    }
+
+    /**
+     * @return index of the issue currently estimated, equal to the queue size once the round is over
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * @return how long each session of the round stays open, in milliseconds
+     */
+    public long getSessionDuration() {
+        return sessionDuration;
+    }
+
+    public void setSessionDuration(long sessionDuration) {
+        this.sessionDuration = sessionDuration;
+    }
+
+    public String getCurrentIssueKey() {
+        return isFinished() ? null : issueKeys.get(position);
+    }
+
+    public List<String> getUpcomingIssueKeys(int count) {
+        int from = Math.min(position + 1, issueKeys.size());
+        int to = Math.min(from + count, issueKeys.size());
+        return issueKeys.subList(from, to);
+    }
+
+    public boolean isFinished() {
+        return position >= issueKeys.size();
+    }
+}
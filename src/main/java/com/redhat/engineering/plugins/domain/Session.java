@@ -6,15 +6,27 @@ import com.atlassian.jira.user.ApplicationUser;
 import java.util.Date;
 
 /**
+ * The issue and the author are kept as keys, stored sessions resolve them on first access only,
+ * so that reading dates and status never loads them.
+ *
  * @author vdedik@redhat.com
  */
 public class Session {
 
+    private String issueKey;
     private Issue issue;
+    private Resolver<Issue> issueResolver;
     private Date created;
+    private String authorKey;
     private ApplicationUser author;
+    private Resolver<ApplicationUser> authorResolver;
     private Date start;
     private Date end;
+    private Long deckVersion;
+    private Double appliedEstimate;
+    private Long roundId;
+    private boolean analyticsRecorded;
+    private long version;
 
     public Date getCreated() {
         return created;
@@ -24,20 +36,65 @@ public class Session {
         this.created = created;
     }
 
+    public String getAuthorKey() {
+        return authorKey;
+    }
+
     public ApplicationUser getAuthor() {
+        if (authorResolver != null) {
+            author = authorResolver.resolve(authorKey);
+            authorResolver = null;
+        }
         return author;
     }
 
     public void setAuthor(ApplicationUser author) {
         this.author = author;
+        this.authorKey = author == null ? null : author.getKey();
+        this.authorResolver = null;
+    }
+
+    /**
+     * Sets the author by key, the user is looked up when it is first needed.
+     */
+    public void setAuthorKey(String authorKey, Resolver<ApplicationUser> authorResolver) {
+        this.authorKey = authorKey;
+        this.author = null;
+        this.authorResolver = authorResolver;
+    }
+
+    public boolean isAuthor(ApplicationUser user) {
+        return user != null && user.getKey().equals(authorKey);
+    }
+
+    public String getIssueKey() {
+        return issueKey;
     }
 
+    /**
+     * @return the issue, null if the current user cannot browse it
+     */
     public Issue getIssue() {
+        if (issueResolver != null) {
+            issue = issueResolver.resolve(issueKey);
+            issueResolver = null;
+        }
         return issue;
     }
 
     public void setIssue(Issue issue) {
         this.issue = issue;
+        this.issueKey = issue == null ? null : issue.getKey();
+        this.issueResolver = null;
+    }
+
+    /**
+     * Sets the issue by key, the issue is looked up when it is first needed.
+     */
+    public void setIssueKey(String issueKey, Resolver<Issue> issueResolver) {
+        this.issueKey = issueKey;
+        this.issue = null;
+        this.issueResolver = issueResolver;
     }
 
     public Date getStart() {
@@ -55,4 +112,60 @@ public class Session {
     public void setEnd(Date end) {
         this.end = end;
     }
+
+    /**
+     * @return version of the deck the session is played with, null for sessions created before
+     * decks were versioned (their votes are stored as plain values)
+     */
+    public Long getDeckVersion() {
+        return deckVersion;
+    }
+
+    public void setDeckVersion(Long deckVersion) {
+        this.deckVersion = deckVersion;
+    }
+
+    /**
+     * @return estimate written to the issue after the session ended, null if none was applied yet
+     */
+    public Double getAppliedEstimate() {
+        return appliedEstimate;
+    }
+
+    public void setAppliedEstimate(Double appliedEstimate) {
+        this.appliedEstimate = appliedEstimate;
+    }
+
+    /**
+     * @return id of the refinement round the session belongs to, null for standalone sessions
+     */
+    public Long getRoundId() {
+        return roundId;
+    }
+
+    public void setRoundId(Long roundId) {
+        this.roundId = roundId;
+    }
+
+    /**
+     * @return true once the finished session has been added to the analytics rollups
+     */
+    public boolean isAnalyticsRecorded() {
+        return analyticsRecorded;
+    }
+
+    public void setAnalyticsRecorded(boolean analyticsRecorded) {
+        this.analyticsRecorded = analyticsRecorded;
+    }
+
+    /**
+     * @return version of the stored record this session was read from, 0 if it was not stored yet
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,74 @@
+package com.redhat.engineering.plugins.domain;
+
+import java.util.Date;
+
+/**
+ * Entry of the append-only history of a session.
+ */
+public class SessionEvent {
+    public enum Type {
+        CREATED, VOTE_CAST, VOTE_CHANGED, EXTENDED, ENDED, ESTIMATE_APPLIED
+    }
+
+    private long seq;
+    private Type type;
+    private Date time;
+    private String userKey;
+    private String value;
+    private String comment;
+
+    /**
+     * @return position of the event in the history of its session generation, starting at 1
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public void setTime(Date time) {
+        this.time = time;
+    }
+
+    public String getUserKey() {
+        return userKey;
+    }
+
+    public void setUserKey(String userKey) {
+        this.userKey = userKey;
+    }
+
+    /**
+     * @return stored vote for vote events, end time in millis for CREATED, EXTENDED and ENDED,
+     * the estimate for ESTIMATE_APPLIED
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+}
@@ -3,12 +3,17 @@ package com.redhat.engineering.plugins.domain;
 import com.atlassian.jira.user.ApplicationUser;
 
 /**
+ * Stored votes keep the voter as a key and look the user up on first access only.
+ *
  * @author vdedik@redhat.com
  */
 public class Vote {
     private Session session;
+    private String voterKey;
     private ApplicationUser voter;
+    private Resolver<ApplicationUser> voterResolver;
     private String value;
+    private Integer ordinal;
     private String comment;
 
     public Session getSession() {
@@ -19,12 +24,31 @@ public class Vote {
         this.session = session;
     }
 
+    public String getVoterKey() {
+        return voterKey;
+    }
+
     public ApplicationUser getVoter() {
+        if (voterResolver != null) {
+            voter = voterResolver.resolve(voterKey);
+            voterResolver = null;
+        }
         return voter;
     }
 
     public void setVoter(ApplicationUser voter) {
         this.voter = voter;
+        this.voterKey = voter == null ? null : voter.getKey();
+        this.voterResolver = null;
+    }
+
+    /**
+     * Sets the voter by key, the user is looked up when it is first needed.
+     */
+    public void setVoterKey(String voterKey, Resolver<ApplicationUser> voterResolver) {
+        this.voterKey = voterKey;
+        this.voter = null;
+        this.voterResolver = voterResolver;
     }
 
     public String getValue() {
@@ -35,6 +59,17 @@ public class Vote {
         this.value = value;
     }
 
+    /**
+     * @return position of the vote value in the session deck
+     */
+    public Integer getOrdinal() {
+        return ordinal;
+    }
+
+    public void setOrdinal(Integer ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public String getComment() {
         return comment;
     }
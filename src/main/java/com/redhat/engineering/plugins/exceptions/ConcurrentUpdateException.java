@@ -0,0 +1,17 @@
+package com.redhat.engineering.plugins.exceptions;
+
+/**
+ * Thrown when a record could not be updated because other writers kept changing it.
+ */
+public class ConcurrentUpdateException extends RuntimeException {
+    private String storeKey;
+
+    public ConcurrentUpdateException(String storeKey, int attempts) {
+        super("Record " + storeKey + " was changed concurrently, giving up after " + attempts + " attempts.");
+        this.storeKey = storeKey;
+    }
+
+    public String getStoreKey() {
+        return storeKey;
+    }
+}
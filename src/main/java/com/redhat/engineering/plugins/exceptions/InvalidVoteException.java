@@ -0,0 +1,17 @@
+package com.redhat.engineering.plugins.exceptions;
+
+/**
+ * Thrown when a vote value is not a card of the deck the session is played with.
+ */
+public class InvalidVoteException extends RuntimeException {
+    private String value;
+
+    public InvalidVoteException(String value) {
+        super("Vote '" + value + "' is not one of the allowed votes.");
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -1,24 +1,18 @@
 package com.redhat.engineering.plugins.panels;
 
-import com.atlassian.jira.avatar.Avatar;
-import com.atlassian.jira.avatar.AvatarService;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.config.properties.APKeys;
-import com.atlassian.jira.datetime.DateTimeFormatter;
-import com.atlassian.jira.datetime.DateTimeStyle;
 import com.atlassian.jira.issue.Issue;
-import com.atlassian.jira.plugin.userformat.UserFormats;
-import com.atlassian.jira.plugin.userformat.UserFormatter;
 import com.atlassian.jira.security.JiraAuthenticationContext;
-import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.plugin.web.model.WebPanel;
 import com.atlassian.templaterenderer.TemplateRenderer;
-import com.google.common.collect.Maps;
 import com.redhat.engineering.plugins.domain.Session;
 import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.services.PermissionEvaluator;
+import com.redhat.engineering.plugins.services.PokerRequestContext;
 import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.UserFragmentCache;
 import com.redhat.engineering.plugins.services.VoteService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,24 +32,22 @@ public class PlanningPokerPanel implements WebPanel {
     private final SessionService sessionService;
     private final VoteService voteService;
     private final TemplateRenderer templateRenderer;
-    private final DateTimeFormatter dateTimeFormatter;
-    private final UserFormats userFormats;
-    private final AvatarService avatarService;
+    private final PokerRequestContext requestContext;
+    private final UserFragmentCache userFragmentCache;
     private final JiraAuthenticationContext authContext;
-    private final PermissionManager permissionManager;
+    private final PermissionEvaluator permissionEvaluator;
 
     public PlanningPokerPanel(SessionService sessionService, TemplateRenderer templateRenderer,
-                              DateTimeFormatter dateTimeFormatter, UserFormats userFormats,
-                              AvatarService avatarService, JiraAuthenticationContext authContext,
-                              VoteService voteService, PermissionManager permissionManager) {
+                              PokerRequestContext requestContext, JiraAuthenticationContext authContext,
+                              VoteService voteService, PermissionEvaluator permissionEvaluator,
+                              UserFragmentCache userFragmentCache) {
         this.sessionService = sessionService;
         this.voteService = voteService;
         this.templateRenderer = templateRenderer;
-        this.dateTimeFormatter = dateTimeFormatter.forLoggedInUser();
-        this.userFormats = userFormats;
-        this.avatarService = avatarService;
+        this.requestContext = requestContext;
         this.authContext = authContext;
-        this.permissionManager = permissionManager;
+        this.permissionEvaluator = permissionEvaluator;
+        this.userFragmentCache = userFragmentCache;
     }
 
     @Override
@@ -91,18 +83,15 @@ public class PlanningPokerPanel implements WebPanel {
     }
 
     public String formatDate(Date date) {
-        return this.dateTimeFormatter.withStyle(DateTimeStyle.RELATIVE_ALWAYS_WITH_TIME).format(date);
+        return requestContext.getDateTimeFormatter().format(date);
     }
 
     public String getAuthorHtml(Session session) {
-        Map<String, Object> params = Maps.newHashMap();
-        params.put("avatarURL", getAvatarURL(session.getAuthor()));
-        UserFormatter userFormatter = userFormats.formatter("avatarFullNameHover");
-        return userFormatter.formatUserkey(session.getAuthor().getKey(), "poker-author", params);
+        return userFragmentCache.getUserHtml(session.getAuthor(), UserFragmentCache.DEF_FORMAT, "poker-author");
     }
 
     public String getAvatarURL(ApplicationUser user) {
-        return avatarService.getAvatarUrlNoPermCheck(user, Avatar.Size.NORMAL).toString();
+        return requestContext.getAvatarUrl(user);
     }
 
     public Integer getVotesSize(Session session) {
@@ -114,11 +103,11 @@ public class PlanningPokerPanel implements WebPanel {
     }
 
     public boolean hasVotePermission(Session session) {
-        return permissionManager.hasPermission(Permissions.EDIT_ISSUE, session.getIssue(), authContext.getUser());
+        return permissionEvaluator.canVoteInList(session.getIssue(), authContext.getUser());
     }
 
     public boolean hasOwnerPermission(Session session) {
-        return session.getAuthor().equals(authContext.getUser());
+        return session.isAuthor(authContext.getUser());
     }
 
     public Status getStatus(Session session) {
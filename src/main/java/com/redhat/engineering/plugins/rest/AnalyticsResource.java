@@ -0,0 +1,111 @@
+package com.redhat.engineering.plugins.rest;
+
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.GlobalPermissionManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.permission.GlobalPermissionKey;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.gson.Gson;
+import com.redhat.engineering.plugins.domain.Rollup;
+import com.redhat.engineering.plugins.services.AnalyticsService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the estimation rollups kept by {@link AnalyticsService}. Every request is a single
+ * rollup read.
+ */
+@Path("/analytics")
+@Produces(MediaType.APPLICATION_JSON)
+public class AnalyticsResource {
+    private final AnalyticsService analyticsService;
+    private final JiraAuthenticationContext authContext;
+    private final ProjectManager projectManager;
+    private final PermissionManager permissionManager;
+    private final GlobalPermissionManager globalPermissionManager;
+    private final Gson gson = new Gson();
+
+    public AnalyticsResource(AnalyticsService analyticsService, JiraAuthenticationContext authContext,
+                             ProjectManager projectManager, PermissionManager permissionManager,
+                             GlobalPermissionManager globalPermissionManager) {
+        this.analyticsService = analyticsService;
+        this.authContext = authContext;
+        this.projectManager = projectManager;
+        this.permissionManager = permissionManager;
+        this.globalPermissionManager = globalPermissionManager;
+    }
+
+    @GET
+    @Path("/project/{projectKey}")
+    public Response getProject(@PathParam("projectKey") String projectKey) {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        Project project = projectManager.getProjectObjByKey(projectKey);
+        if (project == null || !permissionManager.hasPermission(ProjectPermissions.BROWSE_PROJECTS, project, user)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        Map<String, Object> result = toMap(analyticsService.getProjectRollup(project.getKey()), true);
+        result.put("project", project.getKey());
+        return Response.ok(gson.toJson(result)).build();
+    }
+
+    @GET
+    @Path("/user")
+    public Response getCurrentUser() {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        return getUser(user.getKey());
+    }
+
+    @GET
+    @Path("/user/{userKey}")
+    public Response getUser(@PathParam("userKey") String userKey) {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        if (!user.getKey().equals(userKey)
+                && !globalPermissionManager.hasPermission(GlobalPermissionKey.ADMINISTER, user)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        Map<String, Object> result = toMap(analyticsService.getUserRollup(userKey), false);
+        result.put("user", userKey);
+        return Response.ok(gson.toJson(result)).build();
+    }
+
+    private Map<String, Object> toMap(Rollup rollup, boolean project) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("sessions", rollup.getSessions());
+        result.put("votes", rollup.getVotes());
+        if (project) {
+            result.put("consensus", rollup.getConsensus());
+            result.put("averageDispersion", average(rollup.getDispersionSum(), rollup.getSessions()));
+            result.put("estimated", rollup.getEstimated());
+            result.put("averageDelta", average(rollup.getDeltaSum(), rollup.getEstimated()));
+            result.put("averageAbsDelta", average(rollup.getAbsDeltaSum(), rollup.getEstimated()));
+        } else {
+            result.put("averageDeviation", average(rollup.getDispersionSum(), rollup.getVotes()));
+        }
+        return result;
+    }
+
+    private static Double average(double sum, long count) {
+        return count == 0 ? null : sum / count;
+    }
+}
@@ -0,0 +1,122 @@
+package com.redhat.engineering.plugins.rest;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.jql.builder.JqlQueryBuilder;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.google.gson.Gson;
+import com.redhat.engineering.plugins.services.SessionIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sessions of the logged in user, served from their membership record in {@link SessionIndex}
+ * without loading sessions. Sessions of issues the user cannot browse (anymore) are left out, the
+ * browsable ones are found with one {@code issuekey in (...)} search per batch of keys.
+ */
+@Path("/my")
+@Produces(MediaType.APPLICATION_JSON)
+public class MyPokerResource {
+    private static final Logger log = LoggerFactory.getLogger(MyPokerResource.class);
+    // issue keys per search, keeps the query well below the JQL size limits
+    private static final int SEARCH_BATCH = 500;
+
+    private final SessionIndex sessionIndex;
+    private final JiraAuthenticationContext authContext;
+    private final SearchService searchService;
+    private final Gson gson = new Gson();
+
+    public MyPokerResource(SessionIndex sessionIndex, JiraAuthenticationContext authContext,
+                           SearchService searchService) {
+        this.sessionIndex = sessionIndex;
+        this.authContext = authContext;
+        this.searchService = searchService;
+    }
+
+    /**
+     * Sessions in progress the user was invited to and hasn't voted in yet.
+     */
+    @GET
+    @Path("/pending")
+    public Response getPending() {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        return Response.ok(gson.toJson(toList(user, sessionIndex.getPending(user.getKey())))).build();
+    }
+
+    /**
+     * All sessions the user was invited to or voted in, newest first.
+     */
+    @GET
+    @Path("/sessions")
+    public Response getSessions() {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        return Response.ok(gson.toJson(toList(user, sessionIndex.getMemberships(user.getKey())))).build();
+    }
+
+    private List<Map<String, Object>> toList(ApplicationUser user, List<SessionIndex.Membership> memberships) {
+        List<String> issueKeys = new ArrayList<String>();
+        for (SessionIndex.Membership membership : memberships) {
+            issueKeys.add(membership.getIssueKey());
+        }
+        Set<String> browsable = getBrowsableKeys(user, issueKeys);
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        for (SessionIndex.Membership membership : memberships) {
+            if (!browsable.contains(membership.getIssueKey())) {
+                continue;
+            }
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("issueKey", membership.getIssueKey());
+            item.put("status", membership.getStatus().name());
+            item.put("start", membership.getStart());
+            item.put("end", membership.getEnd());
+            item.put("voted", membership.isVoted());
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * @return the keys of issues the user can browse, the search applies project permissions and
+     * issue security
+     */
+    private Set<String> getBrowsableKeys(ApplicationUser user, List<String> issueKeys) {
+        Set<String> browsable = new HashSet<String>();
+        for (int from = 0; from < issueKeys.size(); from += SEARCH_BATCH) {
+            List<String> batch = issueKeys.subList(from, Math.min(from + SEARCH_BATCH, issueKeys.size()));
+            try {
+                List<Issue> issues = searchService.search(user,
+                        JqlQueryBuilder.newClauseBuilder().issue().inStrings(batch).buildQuery(),
+                        PagerFilter.getUnlimitedFilter()).getResults();
+                for (Issue issue : issues) {
+                    browsable.add(issue.getKey());
+                }
+            } catch (SearchException e) {
+                // nothing of the batch is shown rather than something the user may not see
+                log.warn("Could not check which of " + batch.size() + " issues " + user.getKey() + " can browse", e);
+            }
+        }
+        return browsable;
+    }
+}
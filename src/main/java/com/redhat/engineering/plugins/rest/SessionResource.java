@@ -0,0 +1,169 @@
+package com.redhat.engineering.plugins.rest;
+
+import com.atlassian.jira.avatar.Avatar;
+import com.atlassian.jira.avatar.AvatarService;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.google.gson.Gson;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.SessionEvent;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.services.SessionEventLog;
+import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session results as compact JSON, rendered on the client by instant-poker.js.
+ */
+@Path("/session")
+@Produces(MediaType.APPLICATION_JSON)
+public class SessionResource {
+    private final SessionService sessionService;
+    private final VoteService voteService;
+    private final AvatarService avatarService;
+    private final JiraAuthenticationContext authContext;
+    private final SessionEventLog eventLog;
+    private final UserManager userManager;
+    private final Gson gson = new Gson();
+
+    public SessionResource(SessionService sessionService, VoteService voteService,
+                           AvatarService avatarService, JiraAuthenticationContext authContext,
+                           SessionEventLog eventLog, UserManager userManager) {
+        this.sessionService = sessionService;
+        this.voteService = voteService;
+        this.avatarService = avatarService;
+        this.authContext = authContext;
+        this.eventLog = eventLog;
+        this.userManager = userManager;
+    }
+
+    @GET
+    @Path("/{issueKey}/results")
+    public Response getResults(@PathParam("issueKey") String issueKey) {
+        if (!authContext.isLoggedInUser()) {
+            return error(Response.Status.UNAUTHORIZED, "You must be logged in to be able to view votes.");
+        }
+        Session session = sessionService.getVisible(issueKey);
+        if (session == null) {
+            return error(Response.Status.NOT_FOUND, "Session not found.");
+        }
+        if (sessionService.getStatus(session) != Status.FINISHED) {
+            return error(Response.Status.FORBIDDEN,
+                    "You cannot view votes because the planning poker session hasn't ended yet.");
+        }
+
+        return Response.ok(gson.toJson(toResults(session))).build();
+    }
+
+    /**
+     * Ends the session now and returns its results, so the client needs a single request.
+     */
+    @POST
+    @Path("/{issueKey}/end")
+    public Response end(@PathParam("issueKey") String issueKey) {
+        if (!authContext.isLoggedInUser()) {
+            return error(Response.Status.UNAUTHORIZED, "You must be logged in to be able to end the session.");
+        }
+        Session session = sessionService.getVisible(issueKey);
+        if (session == null) {
+            return error(Response.Status.NOT_FOUND, "Session not found.");
+        }
+        if (!session.isAuthor(authContext.getLoggedInUser())) {
+            return error(Response.Status.FORBIDDEN, "Only the session creator can end the session.");
+        }
+
+        if (sessionService.getStatus(session) != Status.FINISHED) {
+            session.setEnd(new Date());
+            sessionService.update(session);
+        }
+        return Response.ok(gson.toJson(toResults(session))).build();
+    }
+
+    /**
+     * History of the current session of the issue, oldest event first.
+     */
+    @GET
+    @Path("/{issueKey}/history")
+    public Response getHistory(@PathParam("issueKey") String issueKey) {
+        if (!authContext.isLoggedInUser()) {
+            return error(Response.Status.UNAUTHORIZED, "You must be logged in to be able to view the session history.");
+        }
+        Session session = sessionService.getVisible(issueKey);
+        if (session == null) {
+            return error(Response.Status.NOT_FOUND, "Session not found.");
+        }
+        boolean finished = sessionService.getStatus(session) == Status.FINISHED;
+
+        List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        for (SessionEvent event : eventLog.getEvents(issueKey)) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("seq", event.getSeq());
+            item.put("type", event.getType().name());
+            item.put("time", event.getTime().getTime());
+            ApplicationUser user = event.getUserKey() == null ? null : userManager.getUserByKey(event.getUserKey());
+            if (user != null) {
+                item.put("user", user.getDisplayName());
+            }
+            boolean vote = event.getType() == SessionEvent.Type.VOTE_CAST
+                    || event.getType() == SessionEvent.Type.VOTE_CHANGED;
+            // votes stay secret until the session ends, like in the results
+            if (vote && finished) {
+                item.put("value", voteService.decodeVote(session, event.getValue()));
+                item.put("comment", event.getComment());
+            } else if (!vote) {
+                item.put("value", event.getValue());
+            }
+            events.add(item);
+        }
+
+        Map<String, Object> history = new LinkedHashMap<String, Object>();
+        history.put("issueKey", issueKey);
+        history.put("events", events);
+        return Response.ok(gson.toJson(history)).build();
+    }
+
+    private Map<String, Object> toResults(Session session) {
+        List<Map<String, Object>> votes = new ArrayList<Map<String, Object>>();
+        for (Vote vote : voteService.getVotesBySession(session)) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            ApplicationUser voter = vote.getVoter();
+            if (voter != null) {
+                item.put("voter", voter.getDisplayName());
+                item.put("avatarUrl", avatarService.getAvatarUrlNoPermCheck(voter, Avatar.Size.SMALL).toString());
+            }
+            item.put("value", vote.getValue());
+            if (vote.getComment() != null && !vote.getComment().isEmpty()) {
+                item.put("comment", vote.getComment());
+            }
+            votes.add(item);
+        }
+
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        results.put("issueKey", session.getIssueKey());
+        results.put("creator", session.isAuthor(authContext.getLoggedInUser()));
+        results.put("estimate", session.getAppliedEstimate());
+        results.put("votes", votes);
+        results.put("stats", voteService.getStats(session));
+        return results;
+    }
+
+    private Response error(Response.Status status, String message) {
+        return Response.status(status).entity(gson.toJson(Collections.singletonMap("message", message))).build();
+    }
+}
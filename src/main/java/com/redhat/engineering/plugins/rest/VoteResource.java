@@ -0,0 +1,164 @@
+package com.redhat.engineering.plugins.rest;
+
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.services.PermissionEvaluator;
+import com.redhat.engineering.plugins.services.SessionService;
+import com.redhat.engineering.plugins.services.VoteService;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Votes of one user in many sessions at once, for teams estimating a backlog asynchronously.
+ */
+@Path("/vote")
+@Produces(MediaType.APPLICATION_JSON)
+public class VoteResource {
+    private static final int MAX_VOTES = 200;
+
+    private final SessionService sessionService;
+    private final VoteService voteService;
+    private final PermissionEvaluator permissionEvaluator;
+    private final JiraAuthenticationContext authContext;
+    private final Gson gson = new Gson();
+
+    public VoteResource(SessionService sessionService, VoteService voteService,
+                        PermissionEvaluator permissionEvaluator, JiraAuthenticationContext authContext) {
+        this.sessionService = sessionService;
+        this.voteService = voteService;
+        this.permissionEvaluator = permissionEvaluator;
+        this.authContext = authContext;
+    }
+
+    private static class Batch {
+        private List<Item> votes;
+    }
+
+    private static class Item {
+        private String issueKey;
+        private String value;
+        private String comment;
+    }
+
+    /**
+     * Accepts {@code {"votes": [{"issueKey": ..., "value": ..., "comment": ...}]}} and answers with
+     * the result of every vote in the same order. All votes are checked before any is written, valid
+     * ones are written even if others fail.
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response submit(String body) {
+        ApplicationUser user = authContext.getLoggedInUser();
+        if (user == null) {
+            return error(Response.Status.UNAUTHORIZED, "You must be logged in to be able to vote.");
+        }
+        Batch batch;
+        try {
+            batch = gson.fromJson(body, Batch.class);
+        } catch (JsonParseException e) {
+            return error(Response.Status.BAD_REQUEST, "Request is not valid JSON.");
+        }
+        if (batch == null || batch.votes == null || batch.votes.isEmpty()) {
+            return error(Response.Status.BAD_REQUEST, "No votes given.");
+        }
+        if (batch.votes.size() > MAX_VOTES) {
+            return error(Response.Status.BAD_REQUEST, "At most " + MAX_VOTES + " votes can be sent at once.");
+        }
+
+        // message per position of the vote in the request, null for valid ones
+        List<String> messages = new ArrayList<String>();
+        Map<String, Integer> positions = new LinkedHashMap<String, Integer>();
+        List<Vote> votes = new ArrayList<Vote>();
+        for (Item item : batch.votes) {
+            String message = validate(item, user, positions.keySet());
+            messages.add(message);
+            if (message != null) {
+                continue;
+            }
+            positions.put(item.issueKey, messages.size() - 1);
+
+            Vote vote = new Vote();
+            vote.setSession(sessionService.get(item.issueKey));
+            vote.setVoter(user);
+            vote.setValue(item.value);
+            vote.setComment(item.comment);
+            votes.add(vote);
+        }
+
+        for (Map.Entry<String, String> failed : voteService.saveAll(votes).entrySet()) {
+            messages.set(positions.get(failed.getKey()), failed.getValue());
+        }
+
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+        int saved = 0;
+        for (int i = 0; i < batch.votes.size(); i++) {
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("issueKey", batch.votes.get(i).issueKey);
+            if (messages.get(i) == null) {
+                result.put("saved", true);
+                saved++;
+            } else {
+                result.put("saved", false);
+                result.put("message", messages.get(i));
+            }
+            results.add(result);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("saved", saved);
+        response.put("failed", results.size() - saved);
+        response.put("results", results);
+        return Response.ok(gson.toJson(response)).build();
+    }
+
+    /**
+     * @return why the vote cannot be accepted, null if it can
+     */
+    private String validate(Item item, ApplicationUser user, Set<String> accepted) {
+        if (item == null || item.issueKey == null || item.issueKey.isEmpty()) {
+            return "Issue key is missing.";
+        }
+        if (accepted.contains(item.issueKey)) {
+            return "Only one vote per session can be sent.";
+        }
+        Session session = sessionService.getVisible(item.issueKey);
+        if (session == null) {
+            return "Session not found.";
+        }
+        Status status = sessionService.getStatus(session);
+        if (status == Status.SCHEDULED) {
+            return "You cannot vote because the planning poker session hasn't started yet.";
+        }
+        if (status == Status.FINISHED) {
+            return "You cannot vote because the planning poker session has already ended.";
+        }
+        if (!permissionEvaluator.canVote(session.getIssue(), user)) {
+            return "You don't have permission to vote.";
+        }
+        if (item.value == null || voteService.getDeck(session).getOrdinal(item.value) < 0) {
+            return "Vote '" + item.value + "' is not one of the allowed votes.";
+        }
+        return null;
+    }
+
+    private Response error(Response.Status status, String message) {
+        return Response.status(status).entity(gson.toJson(Collections.singletonMap("message", message))).build();
+    }
+}
@@ -0,0 +1,70 @@
+package com.redhat.engineering.plugins.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local delivery and the compact message format shared by the bus implementations. A message is
+ * {@code <region>:<version>:<key>}.
+ */
+public abstract class AbstractInvalidationBus implements InvalidationBus {
+    private static final Logger log = LoggerFactory.getLogger(AbstractInvalidationBus.class);
+
+    private final ConcurrentMap<String, List<Listener>> listeners = new ConcurrentHashMap<String, List<Listener>>();
+
+    @Override
+    public void publish(String region, String key, long version) {
+        deliver(region, key, version);
+        sendRemote(region + ":" + version + ":" + key);
+    }
+
+    @Override
+    public void subscribe(String region, Listener listener) {
+        List<Listener> regionListeners = listeners.get(region);
+        if (regionListeners == null) {
+            listeners.putIfAbsent(region, new CopyOnWriteArrayList<Listener>());
+            regionListeners = listeners.get(region);
+        }
+        regionListeners.add(listener);
+    }
+
+    /**
+     * Sends the encoded message to the other nodes.
+     */
+    protected abstract void sendRemote(String message);
+
+    /**
+     * Delivers a message received from another node to the local listeners.
+     */
+    protected void receive(String message) {
+        String[] parts = message.split(":", 3);
+        if (parts.length != 3) {
+            log.warn("Ignoring malformed invalidation message: " + message);
+            return;
+        }
+        try {
+            deliver(parts[0], parts[2], Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed invalidation message: " + message);
+        }
+    }
+
+    private void deliver(String region, String key, long version) {
+        List<Listener> regionListeners = listeners.get(region);
+        if (regionListeners == null) {
+            return;
+        }
+        for (Listener listener : regionListeners) {
+            try {
+                listener.invalidated(key, version);
+            } catch (RuntimeException e) {
+                log.error("Invalidation of " + region + ":" + key + " failed", e);
+            }
+        }
+    }
+}
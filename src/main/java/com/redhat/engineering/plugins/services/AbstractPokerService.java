@@ -1,6 +1,8 @@
 package com.redhat.engineering.plugins.services;
 
 import com.atlassian.jira.issue.Issue;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
 
 /**
  * @author vdedik@redhat.com
@@ -9,10 +11,31 @@ public abstract class AbstractPokerService {
     private static final String KEY = "com.redhat.engineering.plugins.planningpoker";
 
     protected String getIssueStoreKey(Issue issue) {
-        return KEY + ".sessions." + issue.getKey();
+        return getIssueStoreKey(issue.getKey());
+    }
+
+    protected String getIssueStoreKey(String issueKey) {
+        return KEY + ".sessions." + issueKey;
     }
 
     protected String getKey() {
         return KEY;
     }
+
+    /**
+     * Project of the issue key, for code that must not load the issue, e.g. without a user.
+     */
+    protected static String toProjectKey(String issueKey) {
+        return issueKey.substring(0, issueKey.lastIndexOf('-'));
+    }
+
+    public Status getStatus(Session session) {
+        if (System.currentTimeMillis() < session.getStart().getTime()) {
+            return Status.SCHEDULED;
+        } else if (System.currentTimeMillis() < session.getEnd().getTime()) {
+            return Status.IN_PROGRESS;
+        } else {
+            return Status.FINISHED;
+        }
+    }
 }
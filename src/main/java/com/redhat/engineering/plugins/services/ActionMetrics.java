@@ -0,0 +1,50 @@
+package com.redhat.engineering.plugins.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms of poker actions and the slow request log. Requests slower than the
+ * configured threshold are logged with their phase breakdown.
+ */
+public class ActionMetrics {
+    private static final Logger log = LoggerFactory.getLogger(ActionMetrics.class);
+
+    private final ConfigService configService;
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public ActionMetrics(ConfigService configService) {
+        this.configService = configService;
+    }
+
+    public void record(RequestTimer timer) {
+        LatencyHistogram histogram = histograms.get(timer.getName());
+        if (histogram == null) {
+            histograms.putIfAbsent(timer.getName(), new LatencyHistogram());
+            histogram = histograms.get(timer.getName());
+        }
+        histogram.record(timer.getTotalMillis());
+
+        int threshold = configService.getSlowRequestMillis();
+        if (threshold > 0 && timer.getTotalMillis() >= threshold) {
+            log.warn("Slow planning poker request " + timer.getName() + " took " + timer.getTotalMillis() +
+                    "ms: " + timer.formatBreakdown());
+        }
+    }
+
+    /**
+     * @return bucket counts of the last hour by action name
+     */
+    public Map<String, long[]> getCounts() {
+        Map<String, long[]> counts = new TreeMap<String, long[]>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getCounts());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,396 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.redhat.engineering.plugins.domain.Deck;
+import com.redhat.engineering.plugins.domain.Rollup;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.Status;
+import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps per-project and per-user estimation rollups. Every finished session is added exactly once,
+ * applied estimates are added when they are written to the issue.
+ * <p>
+ * A session is added when it ends: right away when it is ended early, otherwise once its end time
+ * has passed. Sessions waiting for their end are kept in a few schedule records ({@code s.<issueKey>} =
+ * end), sharded by issue key so that writes of different sessions rarely contend, that every node
+ * checks. A schedule write that loses too many races is retried by the next check of the node. The
+ * votes are read before the analytics flag is claimed, so a session that can't be read stays
+ * unrecorded. The analytics flag of the session record is set with a
+ * compare-and-set before the rollups are written, so a session is added by one node only. The
+ * rollups themselves are shared by many sessions and are versioned records updated with
+ * compare-and-set, so increments from different nodes are not lost.
+ */
+public class AnalyticsService extends AbstractPokerService implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsService.class);
+
+    private static final long CHECK_PERIOD_MILLIS = 60 * 1000L;
+    private static final int SCHEDULE_SHARDS = 16;
+
+    private final PluginSettings pluginSettings;
+    private final VersionedRecordStore recordStore;
+    private final SessionService sessionService;
+    private final VoteService voteService;
+    private final String key;
+    private final String scheduleKey;
+    // end by issue key, for schedule writes that failed on this node
+    private final ConcurrentMap<String, Long> unscheduled = new ConcurrentHashMap<String, Long>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "planning-poker-analytics");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Increment of a rollup.
+     */
+    private interface Change {
+        void apply(Rollup rollup);
+    }
+
+    public AnalyticsService(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus,
+                            SessionService sessionService, VoteService voteService) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "analytics");
+        this.sessionService = sessionService;
+        this.voteService = voteService;
+        this.key = getKey() + ".analytics";
+        this.scheduleKey = key + ".schedule";
+        sessionService.setEndListener(new SessionService.EndListener() {
+            @Override
+            public void endChanged(String issueKey, long end) {
+                if (end <= System.currentTimeMillis()) {
+                    Session session = sessionService.get(issueKey);
+                    if (session != null) {
+                        recordFinished(session);
+                    }
+                } else {
+                    schedule(issueKey, end);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    log.error("Planning poker analytics check failed", e);
+                }
+            }
+        }, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    public Rollup getProjectRollup(String projectKey) {
+        return read(key + ".project." + projectKey);
+    }
+
+    public Rollup getUserRollup(String userKey) {
+        return read(key + ".user." + userKey);
+    }
+
+    /**
+     * Adds the votes of a finished session to the rollups of its project and voters. Sessions that
+     * haven't finished yet or have already been recorded are ignored.
+     */
+    public void recordFinished(Session session) {
+        if (session.isAnalyticsRecorded() || sessionService.getStatus(session) != Status.FINISHED) {
+            return;
+        }
+
+        // everything is read before the claim, a session that fails here stays unrecorded and is retried
+        Deck deck = voteService.getDeck(session);
+        List<Vote> votes = voteService.getVotesBySession(session);
+        List<Double> numericVotes = new ArrayList<Double>();
+        for (Vote vote : votes) {
+            Double numericVote = vote.getOrdinal() == null ? null : deck.getNumericValue(vote.getOrdinal());
+            if (numericVote != null) {
+                numericVotes.add(numericVote);
+            }
+        }
+        double mean = mean(numericVotes);
+
+        final int voteCount = votes.size();
+        final boolean consensus = voteService.isConsensus(voteService.getTally(session));
+        final Double dispersion = numericVotes.isEmpty() ? null : standardDeviation(numericVotes, mean);
+        final Map<String, Double> deviations = new LinkedHashMap<String, Double>();
+        for (Vote vote : votes) {
+            if (vote.getVoter() == null) {
+                continue;
+            }
+            Double numericVote = vote.getOrdinal() == null ? null : deck.getNumericValue(vote.getOrdinal());
+            deviations.put(vote.getVoterKey(), numericVote == null ? null : Math.abs(numericVote - mean));
+        }
+
+        if (!sessionService.claimAnalytics(session)) {
+            return;
+        }
+        add(key + ".project." + getProjectKey(session), new Change() {
+            @Override
+            public void apply(Rollup project) {
+                project.setSessions(project.getSessions() + 1);
+                project.setVotes(project.getVotes() + voteCount);
+                if (consensus) {
+                    project.setConsensus(project.getConsensus() + 1);
+                }
+                if (dispersion != null) {
+                    project.setDispersionSum(project.getDispersionSum() + dispersion);
+                }
+            }
+        });
+
+        for (Map.Entry<String, Double> entry : deviations.entrySet()) {
+            final Double deviation = entry.getValue();
+            add(key + ".user." + entry.getKey(), new Change() {
+                @Override
+                public void apply(Rollup user) {
+                    user.setSessions(user.getSessions() + 1);
+                    user.setVotes(user.getVotes() + 1);
+                    if (deviation != null) {
+                        user.setDispersionSum(user.getDispersionSum() + deviation);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the difference between the applied estimate and the vote average to the project rollup,
+     * replacing the difference of a previously applied estimate.
+     */
+    public void recordEstimate(Session session, final Double previousEstimate, double estimate) {
+        recordFinished(session);
+
+        Map<String, Object> stats = voteService.getStats(session);
+        Double average = (Double) stats.get("average");
+        if (average == null) {
+            return;
+        }
+
+        final double previousDelta = previousEstimate == null ? 0 : previousEstimate - average;
+        final double delta = estimate - average;
+        add(key + ".project." + getProjectKey(session), new Change() {
+            @Override
+            public void apply(Rollup project) {
+                if (previousEstimate == null) {
+                    project.setEstimated(project.getEstimated() + 1);
+                } else {
+                    project.setDeltaSum(project.getDeltaSum() - previousDelta);
+                    project.setAbsDeltaSum(project.getAbsDeltaSum() - Math.abs(previousDelta));
+                }
+                project.setDeltaSum(project.getDeltaSum() + delta);
+                project.setAbsDeltaSum(project.getAbsDeltaSum() + Math.abs(delta));
+            }
+        });
+    }
+
+    /**
+     * Records the sessions whose end has passed, scheduling them first the first time it runs.
+     */
+    void check() {
+        for (Map.Entry<String, Long> entry : unscheduled.entrySet()) {
+            if (unscheduled.remove(entry.getKey(), entry.getValue())) {
+                schedule(entry.getKey(), entry.getValue());
+            }
+        }
+        if (pluginSettings.get(scheduleKey + ".built") == null) {
+            scheduleUnrecorded();
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> dueKeys = new LinkedHashSet<String>();
+        for (String storeKey : getScheduleKeys()) {
+            Properties schedule = recordStore.get(storeKey);
+            if (schedule == null) {
+                continue;
+            }
+            final Map<String, String> due = new HashMap<String, String>();
+            for (String name : schedule.stringPropertyNames()) {
+                if (name.startsWith("s.") && Long.parseLong(schedule.getProperty(name)) <= now) {
+                    due.put(name, schedule.getProperty(name));
+                    dueKeys.add(name.substring(2));
+                }
+            }
+            if (due.isEmpty()) {
+                continue;
+            }
+            try {
+                // sessions extended in the meantime stay scheduled
+                recordStore.update(storeKey, new VersionedRecordStore.Mutation() {
+                    @Override
+                    public boolean apply(Properties schedule) {
+                        boolean changed = false;
+                        for (Map.Entry<String, String> entry : due.entrySet()) {
+                            if (entry.getValue().equals(schedule.getProperty(entry.getKey()))) {
+                                schedule.remove(entry.getKey());
+                                changed = true;
+                            }
+                        }
+                        return changed;
+                    }
+                });
+            } catch (ConcurrentUpdateException e) {
+                // recorded sessions are skipped by their flag, the next check drops their entries
+                log.warn("Could not unschedule " + due.size() + " sessions from " + storeKey, e);
+            }
+        }
+
+        for (String issueKey : dueKeys) {
+            Session session = sessionService.load(issueKey);
+            if (session == null) {
+                continue;
+            }
+            try {
+                recordFinished(session);
+            } catch (RuntimeException e) {
+                log.error("Could not record analytics of session " + session.getIssueKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the sessions that were never recorded, for sessions created before the schedule existed.
+     */
+    private void scheduleUnrecorded() {
+        int scheduled = 0;
+        for (String issueKey : sessionService.getSessionKeys()) {
+            Session session = sessionService.load(issueKey);
+            if (session != null && !session.isAnalyticsRecorded()) {
+                schedule(issueKey, session.getEnd().getTime());
+                scheduled++;
+            }
+        }
+        pluginSettings.put(scheduleKey + ".built", Long.toString(System.currentTimeMillis()));
+        log.info("Scheduled " + scheduled + " planning poker sessions for analytics");
+    }
+
+    private void schedule(final String issueKey, final long end) {
+        try {
+            recordStore.update(getScheduleKey(issueKey), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties schedule) {
+                    schedule.setProperty("s." + issueKey, Long.toString(end));
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            log.warn("Could not schedule analytics of session " + issueKey + ", retrying with the next check", e);
+            unscheduled.put(issueKey, end);
+        }
+    }
+
+    /**
+     * @return keys of all schedule shards and of the schedule used before it was sharded
+     */
+    private List<String> getScheduleKeys() {
+        List<String> storeKeys = new ArrayList<String>();
+        storeKeys.add(scheduleKey);
+        for (int shard = 0; shard < SCHEDULE_SHARDS; shard++) {
+            storeKeys.add(scheduleKey + "." + shard);
+        }
+        return storeKeys;
+    }
+
+    private String getScheduleKey(String issueKey) {
+        return scheduleKey + "." + ((issueKey.hashCode() & Integer.MAX_VALUE) % SCHEDULE_SHARDS);
+    }
+
+    /**
+     * Project of the issue key, the issue itself can't be read without a user on the check thread.
+     */
+    private static String getProjectKey(Session session) {
+        return toProjectKey(session.getIssueKey());
+    }
+
+    private Rollup read(String storeKey) {
+        return toRollup(recordStore.get(storeKey));
+    }
+
+    /**
+     * Applies the change to the rollup with a compare-and-set, so that increments of other nodes are kept.
+     */
+    private void add(String storeKey, final Change change) {
+        recordStore.update(storeKey, new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties props) {
+                Rollup rollup = toRollup(props);
+                change.apply(rollup);
+                props.setProperty("sessions", Long.toString(rollup.getSessions()));
+                props.setProperty("votes", Long.toString(rollup.getVotes()));
+                props.setProperty("consensus", Long.toString(rollup.getConsensus()));
+                props.setProperty("dispersion", Double.toString(rollup.getDispersionSum()));
+                props.setProperty("estimated", Long.toString(rollup.getEstimated()));
+                props.setProperty("delta", Double.toString(rollup.getDeltaSum()));
+                props.setProperty("absDelta", Double.toString(rollup.getAbsDeltaSum()));
+                return true;
+            }
+        });
+    }
+
+    private static Rollup toRollup(Properties props) {
+        Rollup rollup = new Rollup();
+        if (props == null) {
+            return rollup;
+        }
+        rollup.setSessions(Long.parseLong(props.getProperty("sessions", "0")));
+        rollup.setVotes(Long.parseLong(props.getProperty("votes", "0")));
+        rollup.setConsensus(Long.parseLong(props.getProperty("consensus", "0")));
+        rollup.setDispersionSum(Double.parseDouble(props.getProperty("dispersion", "0")));
+        rollup.setEstimated(Long.parseLong(props.getProperty("estimated", "0")));
+        rollup.setDeltaSum(Double.parseDouble(props.getProperty("delta", "0")));
+        rollup.setAbsDeltaSum(Double.parseDouble(props.getProperty("absDelta", "0")));
+        return rollup;
+    }
+
+    private static double mean(List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        double sum = 0;
+        for (Double value : values) {
+            sum += value;
+        }
+        return sum / values.size();
+    }
+
+    private static double standardDeviation(List<Double> values, double mean) {
+        double sum = 0;
+        for (Double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / values.size());
+    }
+}
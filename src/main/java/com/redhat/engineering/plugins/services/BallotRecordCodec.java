@@ -0,0 +1,101 @@
+package com.redhat.engineering.plugins.services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Ballot records of {@link VoteService}: the counters as varints, then one entry per voter with
+ * the user key written once for all of its {@code n.}, {@code v.}, {@code c.} and {@code x.}
+ * entries. Votes of versioned decks are ordinals and take a single byte.
+ */
+public class BallotRecordCodec extends CompactRecordCodec {
+    private static final String[] COUNTERS = {"seq", "expected", "voted", "quorum"};
+
+    private static final int ORDER = 1;
+    private static final int ORDINAL = 2;
+    private static final int VALUE = 4;
+    private static final int COMMENT = 8;
+    private static final int EXPECTED = 16;
+
+    @Override
+    protected void writeFields(DataOutputStream out, Properties record) throws IOException {
+        // counters are written shifted by one, 0 stands for a missing one
+        for (String counter : COUNTERS) {
+            writeVarLong(out, takeLong(record, counter) + 1);
+        }
+
+        Set<String> voterKeys = new LinkedHashSet<String>();
+        for (String name : record.stringPropertyNames()) {
+            if (name.startsWith("n.") || name.startsWith("v.") || name.startsWith("c.") || name.startsWith("x.")) {
+                voterKeys.add(name.substring(2));
+            }
+        }
+        writeVarLong(out, voterKeys.size());
+        for (String voterKey : voterKeys) {
+            long order = takeLong(record, "n." + voterKey);
+            String value = record.getProperty("v." + voterKey);
+            long ordinal = takeLong(record, "v." + voterKey);
+            if (ordinal >= 0) {
+                value = null;
+            } else {
+                record.remove("v." + voterKey);
+            }
+            String comment = (String) record.remove("c." + voterKey);
+            boolean expected = "1".equals(record.getProperty("x." + voterKey));
+            if (expected) {
+                record.remove("x." + voterKey);
+            }
+
+            int flags = (order >= 0 ? ORDER : 0) | (ordinal >= 0 ? ORDINAL : 0) | (value != null ? VALUE : 0)
+                    | (comment != null ? COMMENT : 0) | (expected ? EXPECTED : 0);
+            writeString(out, voterKey);
+            out.writeByte(flags);
+            if (order >= 0) {
+                writeVarLong(out, order);
+            }
+            if (ordinal >= 0) {
+                writeVarLong(out, ordinal);
+            }
+            if (value != null) {
+                writeString(out, value);
+            }
+            if (comment != null) {
+                writeString(out, comment);
+            }
+        }
+    }
+
+    @Override
+    protected void readFields(DataInputStream in, Properties record) throws IOException {
+        for (String counter : COUNTERS) {
+            long value = readVarLong(in) - 1;
+            if (value >= 0) {
+                record.setProperty(counter, Long.toString(value));
+            }
+        }
+
+        for (long count = readVarLong(in); count > 0; count--) {
+            String voterKey = readString(in);
+            int flags = in.readUnsignedByte();
+            if ((flags & ORDER) != 0) {
+                record.setProperty("n." + voterKey, Long.toString(readVarLong(in)));
+            }
+            if ((flags & ORDINAL) != 0) {
+                record.setProperty("v." + voterKey, Long.toString(readVarLong(in)));
+            }
+            if ((flags & VALUE) != 0) {
+                record.setProperty("v." + voterKey, readString(in));
+            }
+            if ((flags & COMMENT) != 0) {
+                record.setProperty("c." + voterKey, readString(in));
+            }
+            if ((flags & EXPECTED) != 0) {
+                record.setProperty("x." + voterKey, "1");
+            }
+        }
+    }
+}
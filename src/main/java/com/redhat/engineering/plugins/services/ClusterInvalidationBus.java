@@ -0,0 +1,48 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Invalidation bus of Data Center nodes, messages to other nodes go through Jira cluster messaging.
+ * On a single node Jira drops remote messages, so only local delivery remains.
+ */
+public class ClusterInvalidationBus extends AbstractInvalidationBus implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ClusterInvalidationBus.class);
+
+    // Jira limits channel names to 20 characters
+    static final String CHANNEL = "PokerInvalidate";
+    // Longer messages are replaced by a flush of the whole region
+    private static final int MAX_MESSAGE_LENGTH = 200;
+
+    private final ClusterMessagingService clusterMessagingService;
+    private final ClusterMessageConsumer consumer = new ClusterMessageConsumer() {
+        @Override
+        public void receive(String channel, String message, String senderId) {
+            ClusterInvalidationBus.this.receive(message);
+        }
+    };
+
+    public ClusterInvalidationBus(ClusterMessagingService clusterMessagingService) {
+        this.clusterMessagingService = clusterMessagingService;
+        clusterMessagingService.registerListener(CHANNEL, consumer);
+    }
+
+    @Override
+    protected void sendRemote(String message) {
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            String region = message.substring(0, message.indexOf(':'));
+            log.debug("Invalidation message too long, flushing region " + region + " instead");
+            message = region + ":" + REMOVED + ":" + ALL;
+        }
+        clusterMessagingService.sendRemote(CHANNEL, message);
+    }
+
+    @Override
+    public void destroy() {
+        clusterMessagingService.unregisterListener(CHANNEL, consumer);
+    }
+}
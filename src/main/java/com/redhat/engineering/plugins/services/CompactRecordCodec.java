@@ -0,0 +1,186 @@
+package com.redhat.engineering.plugins.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Stores records as a versioned binary form in a base64 string instead of text properties.
+ * Numbers are varints, the version and writer of {@link VersionedRecordStore} take a few bytes,
+ * and entries the subclass does not know are kept as plain name and value pairs, so no record
+ * loses data. Records still stored as properties are read as they are and converted by their next
+ * write.
+ */
+public abstract class CompactRecordCodec implements VersionedRecordStore.Codec {
+    private static final String PREFIX = "c1:";
+    private static final int FORMAT = 1;
+
+    private static final int WRITER_NONE = 0;
+    private static final int WRITER_UUID = 1;
+    private static final int WRITER_TEXT = 2;
+
+    @Override
+    public Object encode(Properties record) {
+        Properties rest = new Properties();
+        rest.putAll(record);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT);
+            // 0 for records without a version
+            writeVarLong(out, takeLong(rest, VersionedRecordStore.VERSION) + 1);
+            writeWriter(out, (String) rest.remove(VersionedRecordStore.WRITER));
+            writeFields(out, rest);
+            writeVarLong(out, rest.size());
+            for (String name : rest.stringPropertyNames()) {
+                writeString(out, name);
+                writeString(out, rest.getProperty(name));
+            }
+        } catch (IOException e) {
+            // writes to memory do not fail
+            throw new IllegalStateException(e);
+        }
+        return PREFIX + Base64.getEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    @Override
+    public Properties decode(Object stored) {
+        if (stored == null || stored instanceof Properties) {
+            return (Properties) stored;
+        }
+        String value = (String) stored;
+        if (!value.startsWith(PREFIX)) {
+            throw new IllegalStateException("Unknown record format " + value.substring(0, Math.min(3, value.length())));
+        }
+        byte[] data = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Properties record = new Properties();
+        try {
+            int format = in.readUnsignedByte();
+            if (format != FORMAT) {
+                throw new IllegalStateException("Unknown record format version " + format);
+            }
+            long version = readVarLong(in) - 1;
+            if (version >= 0) {
+                record.setProperty(VersionedRecordStore.VERSION, Long.toString(version));
+            }
+            readWriter(in, record);
+            readFields(in, record);
+            for (long count = readVarLong(in); count > 0; count--) {
+                record.setProperty(readString(in), readString(in));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt record", e);
+        }
+        return record;
+    }
+
+    /**
+     * Writes the known entries of the record and removes them from it, the remaining ones are
+     * stored as name and value pairs.
+     */
+    protected abstract void writeFields(DataOutputStream out, Properties record) throws IOException;
+
+    protected abstract void readFields(DataInputStream in, Properties record) throws IOException;
+
+    /**
+     * Removes the entry if it is a non-negative number that reads back to the same text.
+     *
+     * @return the number, -1 if the entry is missing or stays a plain entry
+     */
+    protected static long takeLong(Properties record, String name) {
+        String value = record.getProperty(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0 && Long.toString(number).equals(value)) {
+                record.remove(name);
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // kept as a plain entry
+        }
+        return -1;
+    }
+
+    protected static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    protected static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Signed values, e.g. differences of timestamps, small negative ones stay short.
+     */
+    protected static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    protected static long readSignedVarLong(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    protected static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeWriter(DataOutputStream out, String writer) throws IOException {
+        if (writer == null) {
+            out.writeByte(WRITER_NONE);
+            return;
+        }
+        try {
+            UUID uuid = UUID.fromString(writer);
+            if (uuid.toString().equals(writer)) {
+                out.writeByte(WRITER_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // not written by the record store, kept as text
+        }
+        out.writeByte(WRITER_TEXT);
+        writeString(out, writer);
+    }
+
+    private static void readWriter(DataInputStream in, Properties record) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind == WRITER_UUID) {
+            record.setProperty(VersionedRecordStore.WRITER, new UUID(in.readLong(), in.readLong()).toString());
+        } else if (kind == WRITER_TEXT) {
+            record.setProperty(VersionedRecordStore.WRITER, readString(in));
+        }
+    }
+}
@@ -2,33 +2,276 @@ package com.redhat.engineering.plugins.services;
 
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.redhat.engineering.plugins.domain.Deck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author vdedik@redhat.com
  */
 public class ConfigService extends AbstractPokerService {
+    private static final Logger log = LoggerFactory.getLogger(ConfigService.class);
     private static final List<String> DEF_VOTES = Arrays.asList("3", "5", "8", "13", "21", "?");
+    private static final Deck DEF_DECK = new Deck(Deck.DEFAULT_VERSION, DEF_VOTES);
+    private static final String DEF_ESTIMATE_FIELD = "customfield_10205";
+    private static final int DEF_SLOW_REQUEST_MILLIS = 2000;
+    private static final String GLOBAL = "";
 
     private final PluginSettings pluginSettings;
+    private final InvalidationBus invalidationBus;
+    private final VersionedRecordStore recordStore;
 
-    public ConfigService(PluginSettingsFactory pluginSettingsFactory) {
-        this.pluginSettings = pluginSettingsFactory.createGlobalSettings();
+    // Deck registry keyed by project key, GLOBAL holds the fallback deck. Projects without
+    // their own deck map to the global one so that repeated lookups never hit PluginSettings.
+    private final ConcurrentMap<String, Deck> decks = new ConcurrentHashMap<String, Deck>();
+    // Saved deck versions never change, so this one is never invalidated.
+    private final ConcurrentMap<Long, Deck> deckVersions = new ConcurrentHashMap<Long, Deck>();
+
+    public ConfigService(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.invalidationBus = invalidationBus;
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "deck");
+        this.deckVersions.put(Deck.DEFAULT_VERSION, DEF_DECK);
+        invalidationBus.subscribe("config", new InvalidationBus.Listener() {
+            @Override
+            public void invalidated(String key, long version) {
+                if (InvalidationBus.ALL.equals(key)) {
+                    decks.clear();
+                } else {
+                    decks.remove(key);
+                }
+            }
+        });
     }
 
     public List<String> getAllowedVotes() {
-        List<String> allowedVotes = getList(this.getKey() + ".config.allowedVotes");
+        return getDeck().getValues();
+    }
+
+    public List<String> getAllowedVotes(String projectKey) {
+        return getDeck(projectKey).getValues();
+    }
+
+    public void setAllowedVotes(List<String> allowedVotes) {
+        setAllowedVotes(null, allowedVotes);
+    }
+
+    /**
+     * Stores the deck for the given project, an empty list removes the project deck so that the
+     * project falls back to the global one. A null project key stands for the global deck.
+     */
+    public synchronized void setAllowedVotes(String projectKey, List<String> allowedVotes) {
+        String storeKey = getAllowedVotesKey(projectKey);
+        if (allowedVotes == null || allowedVotes.isEmpty()) {
+            pluginSettings.remove(storeKey);
+            pluginSettings.remove(storeKey + ".version");
+        } else {
+            Deck deck = registerDeck(allowedVotes);
+            pluginSettings.put(storeKey, new ArrayList<String>(deck.getValues()));
+            pluginSettings.put(storeKey + ".version", Long.toString(deck.getVersion()));
+        }
+        // Projects without a deck of their own cache the global deck too
+        if (projectKey == null || GLOBAL.equals(projectKey)) {
+            invalidateDecks();
+        } else {
+            invalidationBus.publish("config", projectKey, InvalidationBus.REMOVED);
+        }
+    }
+
+    /**
+     * @return id of the numeric custom field estimates are applied to
+     */
+    public String getEstimateFieldId() {
+        String fieldId = (String) pluginSettings.get(this.getKey() + ".config.estimateField");
+        return fieldId == null ? DEF_ESTIMATE_FIELD : fieldId;
+    }
+
+    public void setEstimateFieldId(String fieldId) {
+        if (fieldId == null || fieldId.isEmpty()) {
+            pluginSettings.remove(this.getKey() + ".config.estimateField");
+        } else {
+            pluginSettings.put(this.getKey() + ".config.estimateField", fieldId);
+        }
+    }
+
+    /**
+     * @return minutes session notifications are collected for before they are mailed, 0 to mail them right away
+     */
+    public int getDigestMinutes() {
+        String minutes = (String) pluginSettings.get(this.getKey() + ".config.digestMinutes");
+        return minutes == null ? 0 : Integer.parseInt(minutes);
+    }
+
+    public void setDigestMinutes(int minutes) {
+        if (minutes <= 0) {
+            pluginSettings.remove(this.getKey() + ".config.digestMinutes");
+        } else {
+            pluginSettings.put(this.getKey() + ".config.digestMinutes", Integer.toString(minutes));
+        }
+    }
+
+    /**
+     * @return duration from which action requests are logged as slow, 0 to log none
+     */
+    public int getSlowRequestMillis() {
+        String millis = (String) pluginSettings.get(this.getKey() + ".config.slowRequestMillis");
+        return millis == null ? DEF_SLOW_REQUEST_MILLIS : Integer.parseInt(millis);
+    }
+
+    public void setSlowRequestMillis(int millis) {
+        pluginSettings.put(this.getKey() + ".config.slowRequestMillis", Integer.toString(Math.max(millis, 0)));
+    }
+
+    public boolean hasProjectDeck(String projectKey) {
+        return !getList(getAllowedVotesKey(projectKey)).isEmpty();
+    }
+
+    /**
+     * @return the currently active global deck
+     */
+    public Deck getDeck() {
+        Deck deck = decks.get(GLOBAL);
+        if (deck == null) {
+            deck = loadDeck(GLOBAL);
+            if (deck == null) {
+                deck = DEF_DECK;
+            }
+            Deck existing = decks.putIfAbsent(GLOBAL, deck);
+            if (existing != null) {
+                deck = existing;
+            }
+        }
+        return deck;
+    }
+
+    /**
+     * @return the currently active deck of the project, or the global deck if the project has none
+     */
+    public Deck getDeck(String projectKey) {
+        if (projectKey == null || GLOBAL.equals(projectKey)) {
+            return getDeck();
+        }
+
+        Deck deck = decks.get(projectKey);
+        if (deck == null) {
+            deck = loadDeck(projectKey);
+            if (deck == null) {
+                deck = getDeck();
+            }
+            Deck existing = decks.putIfAbsent(projectKey, deck);
+            if (existing != null) {
+                deck = existing;
+            }
+        }
+        return deck;
+    }
+
+    /**
+     * @return the deck saved under the given version, or null if there is no such version
+     */
+    public Deck getDeckByVersion(Long version) {
+        if (version == null) {
+            return null;
+        }
+
+        Deck deck = deckVersions.get(version);
+        if (deck == null) {
+            List<String> values = getList(getDecksKey() + "." + version);
+            if (values.isEmpty()) {
+                return null;
+            }
+            deck = new Deck(version, values);
+            Deck existing = deckVersions.putIfAbsent(version, deck);
+            if (existing != null) {
+                deck = existing;
+            }
+        }
+        return deck;
+    }
+
+    public void invalidateDecks() {
+        invalidationBus.publish("config", InvalidationBus.ALL, InvalidationBus.REMOVED);
+    }
+
+    private Deck loadDeck(String projectKey) {
+        String storeKey = getAllowedVotesKey(projectKey);
+        List<String> allowedVotes = getList(storeKey);
         if (allowedVotes.isEmpty()) {
-            return DEF_VOTES;
+            return null;
+        }
+
+        String version = (String) pluginSettings.get(storeKey + ".version");
+        if (version == null) {
+            // deck saved before decks were versioned. Nodes upgrading it at the same time each save
+            // the same cards under a version of their own, sessions of either version still decode.
+            synchronized (this) {
+                version = (String) pluginSettings.get(storeKey + ".version");
+                if (version == null) {
+                    Deck deck = registerDeck(allowedVotes);
+                    pluginSettings.put(storeKey + ".version", Long.toString(deck.getVersion()));
+                    return deck;
+                }
+            }
         }
-        return allowedVotes;
+
+        Deck deck = getDeckByVersion(Long.parseLong(version));
+        return deck != null ? deck : new Deck(Long.parseLong(version), allowedVotes);
     }
 
-    public void setAllowedVotes(List<String> allowedVotes) {
-        pluginSettings.put(this.getKey() + ".config.allowedVotes", allowedVotes);
+    /**
+     * Saves the cards under a new deck version. Versions come from a compare-and-set counter so
+     * that nodes never share one, and a saved version is never overwritten.
+     */
+    private Deck registerDeck(List<String> allowedVotes) {
+        long nextId = nextDeckId();
+        while (pluginSettings.get(getDecksKey() + "." + nextId) != null) {
+            // taken by the counter of the first deck layout on another node
+            log.warn("Deck version " + nextId + " is already saved, skipping it");
+            nextId = nextDeckId();
+        }
+
+        Deck deck = new Deck(nextId, allowedVotes);
+        pluginSettings.put(getDecksKey() + "." + nextId, new ArrayList<String>(deck.getValues()));
+        deckVersions.put(nextId, deck);
+        return deck;
+    }
+
+    private long nextDeckId() {
+        Properties counter = recordStore.update(getDecksKey() + ".seq", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties counter) {
+                long last;
+                if (counter.getProperty("last") != null) {
+                    last = Long.parseLong(counter.getProperty("last"));
+                } else {
+                    // counter of the first deck layout
+                    Object currId = pluginSettings.get(getDecksKey() + ".currId");
+                    last = currId == null ? 0 : Long.parseLong((String) currId);
+                }
+                counter.setProperty("last", Long.toString(last + 1));
+                return true;
+            }
+        });
+        return Long.parseLong(counter.getProperty("last"));
+    }
+
+    private String getDecksKey() {
+        return this.getKey() + ".config.decks";
+    }
+
+    private String getAllowedVotesKey(String projectKey) {
+        String storeKey = this.getKey() + ".config.allowedVotes";
+        if (projectKey == null || GLOBAL.equals(projectKey)) {
+            return storeKey;
+        }
+        return storeKey + "." + projectKey;
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,103 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.ModifiedValue;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.index.IndexException;
+import com.atlassian.jira.issue.index.IssueIndexingService;
+import com.atlassian.jira.issue.util.DefaultIssueChangeHolder;
+import com.redhat.engineering.plugins.domain.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes final estimates of finished sessions to the configured estimate field. All values of one
+ * call are written first and the affected issues are reindexed together at the end. A failure
+ * applying one estimate is reported for its issue and does not stop the others.
+ */
+public class EstimateService extends AbstractPokerService {
+    private static final Logger log = LoggerFactory.getLogger(EstimateService.class);
+
+    private final ConfigService configService;
+    private final SessionService sessionService;
+    private final CustomFieldManager customFieldManager;
+    private final IssueManager issueManager;
+    private final IssueIndexingService issueIndexingService;
+    private final AnalyticsService analyticsService;
+
+    public EstimateService(ConfigService configService, SessionService sessionService,
+                           CustomFieldManager customFieldManager, IssueManager issueManager,
+                           IssueIndexingService issueIndexingService, AnalyticsService analyticsService) {
+        this.configService = configService;
+        this.sessionService = sessionService;
+        this.customFieldManager = customFieldManager;
+        this.issueManager = issueManager;
+        this.issueIndexingService = issueIndexingService;
+        this.analyticsService = analyticsService;
+    }
+
+    public CustomField getEstimateField() {
+        return customFieldManager.getCustomFieldObject(configService.getEstimateFieldId());
+    }
+
+    /**
+     * @param estimates final estimate per session
+     * @return error message per issue key for estimates that could not be applied
+     */
+    public Map<String, String> apply(Map<Session, Double> estimates) {
+        Map<String, String> errors = new LinkedHashMap<String, String>();
+        CustomField estimateField = getEstimateField();
+        if (estimateField == null) {
+            for (Session session : estimates.keySet()) {
+                errors.put(session.getIssueKey(),
+                        "Estimate field " + configService.getEstimateFieldId() + " does not exist.");
+            }
+            return errors;
+        }
+
+        List<MutableIssue> updated = new ArrayList<MutableIssue>();
+        try {
+            for (Map.Entry<Session, Double> estimate : estimates.entrySet()) {
+                Session session = estimate.getKey();
+                try {
+                    MutableIssue issue = issueManager.getIssueObject(session.getIssueKey());
+                    if (issue == null) {
+                        errors.put(session.getIssueKey(), "Issue does not exist anymore.");
+                        continue;
+                    }
+
+                    estimateField.updateValue(null, issue,
+                            new ModifiedValue(issue.getCustomFieldValue(estimateField), estimate.getValue()),
+                            new DefaultIssueChangeHolder());
+                    updated.add(issue);
+
+                    Double previousEstimate = session.getAppliedEstimate();
+                    session.setAppliedEstimate(estimate.getValue());
+                    sessionService.update(session);
+                    analyticsService.recordEstimate(session, previousEstimate, estimate.getValue());
+                } catch (RuntimeException e) {
+                    log.error("Failed to apply estimate " + estimate.getValue() + " to " + session.getIssueKey(), e);
+                    errors.put(session.getIssueKey(), "The estimate could not be applied, please try again.");
+                }
+            }
+        } finally {
+            // issues whose field was written are reindexed even if a later step failed
+            if (!updated.isEmpty()) {
+                try {
+                    issueIndexingService.reIndexIssueObjects(updated);
+                } catch (IndexException e) {
+                    log.error("Failed to reindex " + updated.size() + " issues after applying estimates", e);
+                }
+            }
+        }
+
+        return errors;
+    }
+}
@@ -2,6 +2,8 @@ package com.redhat.engineering.plugins.services;
 
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.redhat.engineering.plugins.domain.Group;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,11 +21,25 @@ public class GroupService extends AbstractPokerService {
     private static final Logger log = LoggerFactory.getLogger(SessionService.class);
 
     private final PluginSettings pluginSettings;
+    private final InvalidationBus invalidationBus;
     private final String key;
+    // Groups are not versioned, any change of a group evicts it on all nodes
+    private final Cache<Long, Group> cache = CacheBuilder.newBuilder().maximumSize(1000).build();
 
-    public GroupService(PluginSettingsFactory pluginSettingsFactory) {
-        this.pluginSettings = pluginSettingsFactory.createGlobalSettings();
+    public GroupService(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.invalidationBus = invalidationBus;
         this.key = getKey() + ".groups";
+        invalidationBus.subscribe("group", new InvalidationBus.Listener() {
+            @Override
+            public void invalidated(String groupId, long version) {
+                if (InvalidationBus.ALL.equals(groupId)) {
+                    cache.invalidateAll();
+                } else {
+                    cache.invalidate(Long.valueOf(groupId));
+                }
+            }
+        });
     }
 
     public Group create(Group group) {
@@ -40,6 +56,7 @@ public class GroupService extends AbstractPokerService {
         this.pluginSettings.put(key + "." + nextId + ".name", group.getName());
         this.pluginSettings.put(key + ".currId", nextId.toString());
         group.setId(nextId);
+        invalidate(group);
 
         return group;
     }
@@ -47,26 +64,30 @@ public class GroupService extends AbstractPokerService {
     public void update(Group group) {
         this.pluginSettings.put(key + "." + group.getId(), toList(group.getNames()));
         this.pluginSettings.put(key + "." + group.getId() + ".name", group.getName());
+        invalidate(group);
     }
 
     public void delete(Group group) {
         this.pluginSettings.remove(key + "." + group.getId());
+        invalidate(group);
     }
 
     public Group get(Long id) {
-        Group group = new Group();
-        group.setId(id);
-        @SuppressWarnings("unchecked")
-        List<String> names = (List<String>) this.pluginSettings.get(key + "." + id);
-        String name = (String) this.pluginSettings.get(key + "." + id + ".name");
-
-        if (names == null) {
-            return null;
+        Group group = cache.getIfPresent(id);
+        if (group == null) {
+            group = load(id);
+            if (group == null) {
+                return null;
+            }
+            cache.put(id, group);
         }
-        group.setNames(new HashSet<String>(names));
-        group.setName(name);
 
-        return group;
+        // callers may modify the group before saving it, so they get a copy
+        Group copy = new Group();
+        copy.setId(group.getId());
+        copy.setName(group.getName());
+        copy.setNames(new HashSet<String>(group.getNames()));
+        return copy;
     }
 
     public Set<Group> getAll() {
@@ -88,6 +109,26 @@ public class GroupService extends AbstractPokerService {
         return groups;
     }
 
+    private void invalidate(Group group) {
+        invalidationBus.publish("group", group.getId().toString(), InvalidationBus.REMOVED);
+    }
+
+    private Group load(Long id) {
+        Group group = new Group();
+        group.setId(id);
+        @SuppressWarnings("unchecked")
+        List<String> names = (List<String>) this.pluginSettings.get(key + "." + id);
+        String name = (String) this.pluginSettings.get(key + "." + id + ".name");
+
+        if (names == null) {
+            return null;
+        }
+        group.setNames(new HashSet<String>(names));
+        group.setName(name);
+
+        return group;
+    }
+
     private <T> List<T> toList(Set<T> set) {
         return new ArrayList<T>(set);
     }
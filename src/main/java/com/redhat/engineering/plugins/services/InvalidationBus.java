@@ -0,0 +1,28 @@
+package com.redhat.engineering.plugins.services;
+
+/**
+ * Tells the caches of all nodes that a stored record changed. Messages are "key of region changed,
+ * it is now at version N", caches drop their copy only if it is older than that.
+ */
+public interface InvalidationBus {
+    /**
+     * Version of records that were removed, evicts any cached copy.
+     */
+    long REMOVED = Long.MAX_VALUE;
+
+    /**
+     * Key that stands for all records of a region.
+     */
+    String ALL = "*";
+
+    interface Listener {
+        void invalidated(String key, long version);
+    }
+
+    /**
+     * Delivers the message to the listeners of the region on this node and on all other nodes.
+     */
+    void publish(String region, String key, long version);
+
+    void subscribe(String region, Listener listener);
+}
@@ -0,0 +1,82 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.bc.issue.properties.IssuePropertyService;
+import com.atlassian.jira.entity.property.EntityPropertyOptions;
+import com.atlassian.jira.entity.property.EntityPropertyService;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.google.gson.Gson;
+import com.redhat.engineering.plugins.domain.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Mirrors the poker state of an issue into the indexed "planningpoker" issue property, so that
+ * JQL can find, sort and page through sessions without the plugin scanning them.
+ * <p>
+ * The status is not published, sessions start and end on their own without a write. Query it
+ * through the dates instead, e.g. sessions in progress are
+ * {@code issue.property[planningpoker].start <= now() AND issue.property[planningpoker].end > now()}.
+ */
+public class IssuePropertyPublisher {
+    private static final Logger log = LoggerFactory.getLogger(IssuePropertyPublisher.class);
+
+    public static final String PROPERTY_KEY = "planningpoker";
+
+    private final IssuePropertyService issuePropertyService;
+    private final JiraAuthenticationContext authContext;
+    private final Gson gson = new Gson();
+    private final EntityPropertyOptions options = new EntityPropertyOptions.Builder().skipPermissionChecks().build();
+
+    public IssuePropertyPublisher(IssuePropertyService issuePropertyService, JiraAuthenticationContext authContext) {
+        this.issuePropertyService = issuePropertyService;
+        this.authContext = authContext;
+    }
+
+    public void publish(Session session, int votes) {
+        if (session.getIssue() == null) {
+            log.warn("Issue " + session.getIssueKey() + " not found, not publishing its poker property");
+            return;
+        }
+        Map<String, Object> value = new LinkedHashMap<String, Object>();
+        value.put("start", formatDate(session.getStart()));
+        value.put("end", formatDate(session.getEnd()));
+        value.put("votes", votes);
+        value.put("author", session.getAuthorKey());
+        if (session.getAppliedEstimate() != null) {
+            value.put("estimate", session.getAppliedEstimate());
+        }
+
+        EntityPropertyService.PropertyInput input = new EntityPropertyService.PropertyInput(gson.toJson(value), PROPERTY_KEY);
+        EntityPropertyService.SetPropertyValidationResult validationResult =
+                issuePropertyService.validateSetProperty(authContext.getLoggedInUser(), session.getIssue().getId(), input, options);
+        if (!validationResult.isValid()) {
+            log.warn("Could not publish poker property of issue " + session.getIssueKey() + ": " +
+                    validationResult.getErrorCollection());
+            return;
+        }
+        issuePropertyService.setProperty(authContext.getLoggedInUser(), validationResult);
+    }
+
+    public void remove(Session session) {
+        if (session.getIssue() == null) {
+            return;
+        }
+        EntityPropertyService.DeletePropertyValidationResult validationResult = issuePropertyService.validateDeleteProperty(
+                authContext.getLoggedInUser(), session.getIssue().getId(), PROPERTY_KEY, options);
+        if (validationResult.isValid()) {
+            issuePropertyService.deleteProperty(authContext.getLoggedInUser(), validationResult);
+        }
+    }
+
+    private static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
@@ -0,0 +1,76 @@
+package com.redhat.engineering.plugins.services;
+
+/**
+ * Latencies of the last hour in fixed buckets, kept in one slot per minute so old minutes drop
+ * out as the window moves on.
+ */
+public class LatencyHistogram {
+    /**
+     * Upper bounds of the buckets in milliseconds, the last bucket takes everything slower.
+     */
+    public static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, Long.MAX_VALUE};
+
+    private static final int SLOTS = 60;
+    private static final long SLOT_MILLIS = 60 * 1000L;
+
+    private final long[][] counts = new long[SLOTS][BOUNDS.length];
+    // minute each slot was last used for
+    private final long[] slotMinutes = new long[SLOTS];
+
+    public synchronized void record(long millis) {
+        long minute = System.currentTimeMillis() / SLOT_MILLIS;
+        int slot = (int) (minute % SLOTS);
+        if (slotMinutes[slot] != minute) {
+            slotMinutes[slot] = minute;
+            counts[slot] = new long[BOUNDS.length];
+        }
+        counts[slot][getBucket(millis)]++;
+    }
+
+    /**
+     * @return counts per bucket over the last hour
+     */
+    public synchronized long[] getCounts() {
+        long oldest = System.currentTimeMillis() / SLOT_MILLIS - SLOTS + 1;
+        long[] total = new long[BOUNDS.length];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slotMinutes[slot] >= oldest) {
+                for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+                    total[bucket] += counts[slot][bucket];
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return upper bound of the bucket the percentile falls into, -1 without any requests
+     */
+    public static long getPercentile(long[] counts, double percentile) {
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return BOUNDS[bucket];
+            }
+        }
+        return BOUNDS[BOUNDS.length - 1];
+    }
+
+    private static int getBucket(long millis) {
+        for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+            if (millis <= BOUNDS[bucket]) {
+                return bucket;
+            }
+        }
+        return BOUNDS.length - 1;
+    }
+}
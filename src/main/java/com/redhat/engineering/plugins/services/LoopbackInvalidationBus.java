@@ -0,0 +1,29 @@
+package com.redhat.engineering.plugins.services;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process invalidation bus. Connected buses act as nodes of one cluster, so several sets of
+ * services in a single JVM can be checked against each other without Jira cluster messaging.
+ */
+public class LoopbackInvalidationBus extends AbstractInvalidationBus {
+    private final List<LoopbackInvalidationBus> peers = new CopyOnWriteArrayList<LoopbackInvalidationBus>();
+
+    /**
+     * Makes both buses deliver their messages to each other.
+     */
+    public void connect(LoopbackInvalidationBus peer) {
+        if (peer != this && !peers.contains(peer)) {
+            peers.add(peer);
+            peer.connect(this);
+        }
+    }
+
+    @Override
+    protected void sendRemote(String message) {
+        for (LoopbackInvalidationBus peer : peers) {
+            peer.receive(message);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.mail.Email;
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.mail.queue.SingleMailQueueItem;
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.sal.api.UrlMode;
+import com.atlassian.templaterenderer.TemplateRenderer;
+import com.opensymphony.util.TextUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mails users about new and changed sessions. With digest mode on, notifications are collected
+ * per recipient and sent as one mail once the oldest of them is a digest interval old. A session
+ * is listed once per digest however often it changed in the meantime. The issue summary is only
+ * included for recipients who can browse the issue, others get its key only, like the single mail.
+ * <p>
+ * Digests are kept in memory of the node that created the notification and are sent right away
+ * when the plugin stops. A node that fails loses the digests it collected, at most one digest
+ * interval of notifications, the configuration page says so.
+ */
+public class NotificationService implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(NotificationService.class);
+
+    private static final long FLUSH_PERIOD_MILLIS = 30 * 1000L;
+
+    private final ConfigService configService;
+    private final UserManager userManager;
+    private final PermissionManager permissionManager;
+    private final TemplateRenderer templateRenderer;
+    private final ApplicationProperties applicationProperties;
+    // pending digest by recipient user key, guarded by itself
+    private final Map<String, Digest> digests = new HashMap<String, Digest>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "planning-poker-digest");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public NotificationService(ConfigService configService, UserManager userManager,
+                               PermissionManager permissionManager, TemplateRenderer templateRenderer,
+                               ApplicationProperties applicationProperties) {
+        this.configService = configService;
+        this.userManager = userManager;
+        this.permissionManager = permissionManager;
+        this.templateRenderer = templateRenderer;
+        this.applicationProperties = applicationProperties;
+    }
+
+    private static class Digest {
+        private final long since = System.currentTimeMillis();
+        // sessions by issue key, in the order of their first notification
+        private final Map<String, Item> items = new LinkedHashMap<String, Item>();
+    }
+
+    /**
+     * One session in a digest, public for the mail template.
+     */
+    public static class Item {
+        private final String issueKey;
+        private final String summary;
+        private final boolean created;
+
+        private Item(String issueKey, String summary, boolean created) {
+            this.issueKey = issueKey;
+            this.summary = summary;
+            this.created = created;
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        /**
+         * @return summary of the issue, null if the recipient cannot browse it
+         */
+        public String getSummary() {
+            return summary;
+        }
+
+        public boolean isCreated() {
+            return created;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush(false);
+                } catch (RuntimeException e) {
+                    log.error("Failed to send planning poker digests", e);
+                }
+            }
+        }, FLUSH_PERIOD_MILLIS, FLUSH_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        flush(true);
+    }
+
+    /**
+     * Notifies the users about the session of the issue, right away or in their next digest.
+     *
+     * @param created true for a new session, false for a changed one
+     */
+    public void notify(List<ApplicationUser> recipients, Issue issue, boolean created) {
+        if (configService.getDigestMinutes() <= 0) {
+            for (ApplicationUser recipient : recipients) {
+                send(recipient, issue);
+            }
+            return;
+        }
+
+        Map<String, String> summaries = new HashMap<String, String>();
+        for (ApplicationUser recipient : recipients) {
+            boolean browsable = permissionManager.hasPermission(ProjectPermissions.BROWSE_PROJECTS, issue, recipient);
+            summaries.put(recipient.getKey(), browsable ? issue.getSummary() : null);
+        }
+
+        synchronized (digests) {
+            for (ApplicationUser recipient : recipients) {
+                Digest digest = digests.get(recipient.getKey());
+                if (digest == null) {
+                    digest = new Digest();
+                    digests.put(recipient.getKey(), digest);
+                }
+                Item previous = digest.items.get(issue.getKey());
+                // a session created within the digest stays new when it is changed afterwards
+                boolean isNew = created || (previous != null && previous.isCreated());
+                digest.items.put(issue.getKey(), new Item(issue.getKey(), summaries.get(recipient.getKey()), isNew));
+            }
+        }
+    }
+
+    /**
+     * @param all true to send all digests, false to send only the ones older than the digest interval
+     */
+    private void flush(boolean all) {
+        long cutoff = System.currentTimeMillis() - configService.getDigestMinutes() * 60 * 1000L;
+        Map<String, Digest> ready = new HashMap<String, Digest>();
+        synchronized (digests) {
+            Iterator<Map.Entry<String, Digest>> iterator = digests.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Digest> entry = iterator.next();
+                if (all || entry.getValue().since <= cutoff) {
+                    ready.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        for (Map.Entry<String, Digest> entry : ready.entrySet()) {
+            ApplicationUser recipient = userManager.getUserByKey(entry.getKey());
+            if (recipient == null || recipient.getEmailAddress() == null) {
+                continue;
+            }
+            send(recipient, new ArrayList<Item>(entry.getValue().items.values()));
+        }
+    }
+
+    private void send(ApplicationUser recipient, Issue issue) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("issue", issue);
+        queue(recipient, "New planning poker session has been created for issue " + issue.getKey() + ".",
+                "views/emails/notify.vm", context);
+    }
+
+    private void send(ApplicationUser recipient, List<Item> items) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("items", items);
+        queue(recipient, items.size() == 1
+                ? "Planning poker session for issue " + items.get(0).getIssueKey() + " has been scheduled."
+                : items.size() + " planning poker sessions have been scheduled.",
+                "views/emails/digest.vm", context);
+    }
+
+    private void queue(ApplicationUser recipient, String subject, String template, Map<String, Object> context) {
+        context.put("baseUrl", applicationProperties.getBaseUrl(UrlMode.CANONICAL));
+        context.put("textutils", new TextUtils());
+        StringWriter body = new StringWriter();
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.RENDER);
+        try {
+            templateRenderer.render(template, context, body);
+        } catch (IOException e) {
+            log.error("Could not render planning poker notification for " + recipient.getKey(), e);
+            return;
+        } finally {
+            split.stop();
+        }
+
+        Email em = new Email(recipient.getEmailAddress());
+        em.setSubject(subject);
+        em.setBody(body.toString());
+        em.setMimeType("text/html");
+        split = RequestTimer.start(RequestTimer.Phase.MAIL);
+        try {
+            ComponentAccessor.getMailQueue().addItem(new SingleMailQueueItem(em));
+        } finally {
+            split.stop();
+        }
+    }
+}
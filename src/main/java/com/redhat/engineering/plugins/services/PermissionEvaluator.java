@@ -0,0 +1,119 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.permission.PermissionSchemeEntry;
+import com.atlassian.jira.permission.PermissionSchemeManager;
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.scheme.Scheme;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides who may vote on an issue, i.e. who may edit it.
+ * <p>
+ * Lists evaluate the permission once per group of issues that are bound to give the same answer:
+ * same project, security level, issue type and status (the workflow can make a status read only),
+ * and the same relation of the user to the reporter and assignee. Projects whose scheme grants
+ * editing through other issue fields, e.g. user custom fields, are checked issue by issue. Results
+ * live for one request.
+ * <p>
+ * The vote path checks the exact issue and keeps the answer for a few seconds.
+ */
+public class PermissionEvaluator {
+    // Holder types that do not depend on the issue, reporter and assignee are part of the group key
+    private static final Set<String> GROUPABLE_HOLDER_TYPES = new HashSet<String>(Arrays.asList(
+            "group", "user", "projectrole", "lead", "applicationRole",
+            "reporter", "reporterWithCreatePermission", "assignee", "assigneeWithAssignablePermission"));
+
+    private final PermissionManager permissionManager;
+    private final PermissionSchemeManager permissionSchemeManager;
+    private final PokerRequestContext requestContext;
+    private final Cache<String, Boolean> votePermissions = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .build();
+
+    public PermissionEvaluator(PermissionManager permissionManager, PermissionSchemeManager permissionSchemeManager,
+                               PokerRequestContext requestContext) {
+        this.permissionManager = permissionManager;
+        this.permissionSchemeManager = permissionSchemeManager;
+        this.requestContext = requestContext;
+    }
+
+    /**
+     * Exact check for writes, cached briefly so that repeated votes do not repeat it.
+     */
+    public boolean canVote(Issue issue, ApplicationUser user) {
+        if (user == null) {
+            return false;
+        }
+        String cacheKey = issue.getId() + ":" + user.getKey();
+        Boolean allowed = votePermissions.getIfPresent(cacheKey);
+        if (allowed == null) {
+            allowed = hasEditPermission(issue, user);
+            votePermissions.put(cacheKey, allowed);
+        }
+        return allowed;
+    }
+
+    /**
+     * Check for displaying lists, shared by all issues of the same group within the request.
+     */
+    public boolean canVoteInList(final Issue issue, final ApplicationUser user) {
+        if (user == null) {
+            return false;
+        }
+        String groupKey = isGroupable(issue.getProjectObject()) ? getGroupKey(issue, user) : "issue:" + issue.getId();
+        return requestContext.get("canVote", groupKey + ":" + user.getKey(), new PokerRequestContext.Loader<Boolean>() {
+            @Override
+            public Boolean load() {
+                return hasEditPermission(issue, user);
+            }
+        });
+    }
+
+    private boolean hasEditPermission(Issue issue, ApplicationUser user) {
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.PERMISSION);
+        try {
+            return permissionManager.hasPermission(ProjectPermissions.EDIT_ISSUES, issue, user);
+        } finally {
+            split.stop();
+        }
+    }
+
+    private boolean isGroupable(final Project project) {
+        return requestContext.get("groupable", project.getId(), new PokerRequestContext.Loader<Boolean>() {
+            @Override
+            public Boolean load() {
+                Scheme scheme = permissionSchemeManager.getSchemeFor(project);
+                if (scheme == null) {
+                    return false;
+                }
+                for (PermissionSchemeEntry entry :
+                        permissionSchemeManager.getPermissionSchemeEntries(scheme, ProjectPermissions.EDIT_ISSUES)) {
+                    if (!GROUPABLE_HOLDER_TYPES.contains(entry.getType())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    private static String getGroupKey(Issue issue, ApplicationUser user) {
+        return "group:" + issue.getProjectId()
+                + ":" + issue.getSecurityLevelId()
+                + ":" + issue.getIssueTypeId()
+                + ":" + issue.getStatusId()
+                + ":" + user.equals(issue.getReporter())
+                + ":" + user.equals(issue.getAssignee());
+    }
+}
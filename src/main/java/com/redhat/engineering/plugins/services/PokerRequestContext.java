@@ -0,0 +1,128 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.avatar.Avatar;
+import com.atlassian.jira.avatar.AvatarService;
+import com.atlassian.jira.datetime.DateTimeFormatter;
+import com.atlassian.jira.datetime.DateTimeStyle;
+import com.atlassian.jira.plugin.userformat.UserFormats;
+import com.atlassian.jira.plugin.userformat.UserFormatter;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.web.ExecutingHttpRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memoizes lookups for the life of one HTTP request, so that the condition, the panel and the
+ * actions rendering one page share the sessions, users, avatar URLs and formatters they resolve.
+ * Outside of a request (e.g. on background threads) nothing is memoized.
+ */
+public class PokerRequestContext {
+    private static final String ATTRIBUTE = PokerRequestContext.class.getName();
+    // Stored in place of null values
+    private static final Object NULL = new Object();
+
+    private final UserManager userManager;
+    private final AvatarService avatarService;
+    private final DateTimeFormatter dateTimeFormatter;
+    private final UserFormats userFormats;
+
+    public PokerRequestContext(UserManager userManager, AvatarService avatarService,
+                               DateTimeFormatter dateTimeFormatter, UserFormats userFormats) {
+        this.userManager = userManager;
+        this.avatarService = avatarService;
+        this.dateTimeFormatter = dateTimeFormatter;
+        this.userFormats = userFormats;
+    }
+
+    public interface Loader<T> {
+        T load();
+    }
+
+    /**
+     * @return the value memoized under the name and key in this request, loaded on first use
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name, Object key, Loader<T> loader) {
+        Map<String, Object> memo = getMemo();
+        if (memo == null) {
+            return loader.load();
+        }
+
+        String memoKey = name + ":" + key;
+        Object value = memo.get(memoKey);
+        if (value == null) {
+            value = loader.load();
+            memo.put(memoKey, value == null ? NULL : value);
+        }
+        return value == NULL ? null : (T) value;
+    }
+
+    /**
+     * Replaces the memoized value after a write in this request.
+     */
+    public void put(String name, Object key, Object value) {
+        Map<String, Object> memo = getMemo();
+        if (memo != null) {
+            memo.put(name + ":" + key, value == null ? NULL : value);
+        }
+    }
+
+    public ApplicationUser getUserByKey(final String userKey) {
+        if (userKey == null) {
+            return null;
+        }
+        return get("user", userKey, new Loader<ApplicationUser>() {
+            @Override
+            public ApplicationUser load() {
+                return userManager.getUserByKey(userKey);
+            }
+        });
+    }
+
+    public String getAvatarUrl(final ApplicationUser user) {
+        return get("avatar", user.getKey(), new Loader<String>() {
+            @Override
+            public String load() {
+                return avatarService.getAvatarUrlNoPermCheck(user, Avatar.Size.NORMAL).toString();
+            }
+        });
+    }
+
+    /**
+     * @return relative date formatter of the logged in user
+     */
+    public DateTimeFormatter getDateTimeFormatter() {
+        return get("formatter", "date", new Loader<DateTimeFormatter>() {
+            @Override
+            public DateTimeFormatter load() {
+                return dateTimeFormatter.forLoggedInUser().withStyle(DateTimeStyle.RELATIVE_ALWAYS_WITH_TIME);
+            }
+        });
+    }
+
+    public UserFormatter getUserFormatter(final String type) {
+        return get("formatter", type, new Loader<UserFormatter>() {
+            @Override
+            public UserFormatter load() {
+                return userFormats.formatter(type);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getMemo() {
+        HttpServletRequest request = ExecutingHttpRequest.get();
+        if (request == null) {
+            return null;
+        }
+        Map<String, Object> memo = (Map<String, Object>) request.getAttribute(ATTRIBUTE);
+        if (memo == null) {
+            memo = new HashMap<String, Object>();
+            request.setAttribute(ATTRIBUTE, memo);
+        }
+        return memo;
+    }
+}
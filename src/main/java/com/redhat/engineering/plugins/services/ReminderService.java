@@ -0,0 +1,444 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.mail.Email;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.mail.queue.SingleMailQueueItem;
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.sal.api.UrlMode;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.templaterenderer.TemplateRenderer;
+import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reminds expected voters who haven't voted yet shortly before a session ends. The expected voters
+ * are the ones in the ballot of the session, usually picked from a voter group, the reminder record
+ * only keeps the end of the session and whether the reminder was sent.
+ * <p>
+ * Sessions waiting for their reminder are kept in a few schedule records ({@code s.<issueKey>} =
+ * time of the reminder), sharded by issue key so that writes of different sessions rarely contend,
+ * and a check is a few cached reads until a session is due. Non-voters of due sessions are a set
+ * difference of bitsets over an interned user id table, and every recipient gets one mail for all
+ * sessions of the check.
+ * <p>
+ * Every node of a cluster runs the check, a session is claimed with a compare-and-set write before
+ * its reminder is sent, so it is sent once. Scheduling never fails the session write that caused it:
+ * a schedule write that loses too many races is retried by the next check of the node.
+ */
+public class ReminderService extends AbstractPokerService implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ReminderService.class);
+
+    private static final long CHECK_PERIOD_MILLIS = 60 * 1000L;
+    private static final long REMIND_BEFORE_MILLIS = 60 * 60 * 1000L;
+    // sessions claimed in one check, the rest waits for the next one
+    private static final int MAX_SESSIONS_PER_CHECK = 500;
+    private static final int SCHEDULE_SHARDS = 16;
+
+    private final PluginSettings pluginSettings;
+    private final VersionedRecordStore recordStore;
+    private final VoteService voteService;
+    private final UserManager userManager;
+    private final TemplateRenderer templateRenderer;
+    private final ApplicationProperties applicationProperties;
+    private final String scheduleKey;
+    // time of the reminder by issue key, for schedule writes that failed on this node
+    private final ConcurrentMap<String, Long> unscheduled = new ConcurrentHashMap<String, Long>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "planning-poker-reminders");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public ReminderService(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus,
+                           VoteService voteService, UserManager userManager, TemplateRenderer templateRenderer,
+                           ApplicationProperties applicationProperties) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "reminder");
+        this.voteService = voteService;
+        this.userManager = userManager;
+        this.templateRenderer = templateRenderer;
+        this.applicationProperties = applicationProperties;
+        this.scheduleKey = getKey() + ".reminders";
+    }
+
+    /**
+     * Interns user keys as small ints, so sets of users are bitsets.
+     */
+    static class UserIdTable {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> keys = new ArrayList<String>();
+
+        int intern(String userKey) {
+            Integer id = ids.get(userKey);
+            if (id == null) {
+                id = keys.size();
+                ids.put(userKey, id);
+                keys.add(userKey);
+            }
+            return id;
+        }
+
+        /**
+         * @return id of the user key, -1 if it was never interned
+         */
+        int find(String userKey) {
+            Integer id = ids.get(userKey);
+            return id == null ? -1 : id;
+        }
+
+        String getKey(int id) {
+            return keys.get(id);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    log.error("Planning poker reminder check failed", e);
+                }
+            }
+        }, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedules the reminder of the session for its expected voters, see {@link VoteService#expectVoters}.
+     */
+    public void expect(Session session) {
+        final long end = session.getEnd().getTime();
+        try {
+            recordStore.update(getReminderKey(session.getIssueKey()), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties reminder) {
+                    // expected voters are read from the ballot, entries of older reminders are dropped
+                    for (String name : reminder.stringPropertyNames()) {
+                        if (name.startsWith("e.")) {
+                            reminder.remove(name);
+                        }
+                    }
+                    reminder.setProperty("end", Long.toString(end));
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            log.warn("Could not add the reminder of session " + session.getIssueKey(), e);
+            return;
+        }
+        schedule(session.getIssueKey(), getRemindAt(session.getStart().getTime(), end));
+    }
+
+    /**
+     * Moves the reminder of the session after its end changed. A reminder that was already sent
+     * is sent again before the new end.
+     */
+    public void reschedule(String issueKey, long start, final long end) {
+        Properties reminder;
+        try {
+            reminder = recordStore.update(getReminderKey(issueKey), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties reminder) {
+                    if (reminder.isEmpty()) {
+                        return false;
+                    }
+                    reminder.setProperty("end", Long.toString(end));
+                    reminder.remove("sent");
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            log.warn("Could not move the reminder of session " + issueKey, e);
+            return;
+        }
+        if (reminder != null) {
+            schedule(issueKey, getRemindAt(start, end));
+        }
+    }
+
+    /**
+     * Drops the reminder of the session, e.g. when it is deleted, replaced or expects nobody.
+     */
+    public void cancel(String issueKey) {
+        if (recordStore.get(getReminderKey(issueKey)) == null) {
+            return;
+        }
+        recordStore.remove(getReminderKey(issueKey));
+        unscheduled.remove(issueKey);
+        try {
+            unschedule(Collections.singletonList(issueKey));
+        } catch (ConcurrentUpdateException e) {
+            // the check drops the entry once it is due, a reminder without expected voters is not sent
+            log.warn("Could not unschedule the reminder of session " + issueKey, e);
+        }
+    }
+
+    void check() {
+        for (Map.Entry<String, Long> entry : unscheduled.entrySet()) {
+            if (unscheduled.remove(entry.getKey(), entry.getValue())) {
+                schedule(entry.getKey(), entry.getValue());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        final Map<String, Long> due = new HashMap<String, Long>();
+        for (String storeKey : getScheduleKeys()) {
+            Properties schedule = recordStore.get(storeKey);
+            if (schedule == null) {
+                continue;
+            }
+            for (String name : schedule.stringPropertyNames()) {
+                if (!name.startsWith("s.")) {
+                    continue;
+                }
+                long remindAt = Long.parseLong(schedule.getProperty(name));
+                if (remindAt <= now) {
+                    due.put(name.substring(2), remindAt);
+                }
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        List<String> dueKeys = new ArrayList<String>(due.keySet());
+        Collections.sort(dueKeys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return due.get(a).compareTo(due.get(b));
+            }
+        });
+        if (dueKeys.size() > MAX_SESSIONS_PER_CHECK) {
+            dueKeys = dueKeys.subList(0, MAX_SESSIONS_PER_CHECK);
+        }
+
+        // interned per check, so the table only holds the recipients of this check
+        UserIdTable userIds = new UserIdTable();
+        // sessions to remind of per recipient id
+        Map<Integer, List<String>> sessionsByRecipient = new HashMap<Integer, List<String>>();
+        List<String> handledKeys = new ArrayList<String>();
+        for (String issueKey : dueKeys) {
+            BitSet nonVoters;
+            try {
+                nonVoters = claim(issueKey, now, userIds);
+            } catch (ConcurrentUpdateException e) {
+                // not claimed, the session stays scheduled and the next check tries again
+                log.warn("Could not claim the reminder of session " + issueKey, e);
+                continue;
+            } catch (RuntimeException e) {
+                log.error("Could not read the voters of session " + issueKey + ", retrying with the next check", e);
+                continue;
+            }
+            handledKeys.add(issueKey);
+            if (nonVoters == null) {
+                continue;
+            }
+            for (int id = nonVoters.nextSetBit(0); id >= 0; id = nonVoters.nextSetBit(id + 1)) {
+                List<String> sessions = sessionsByRecipient.get(id);
+                if (sessions == null) {
+                    sessions = new ArrayList<String>();
+                    sessionsByRecipient.put(id, sessions);
+                }
+                sessions.add(issueKey);
+            }
+        }
+        try {
+            unschedule(handledKeys);
+        } catch (ConcurrentUpdateException e) {
+            // claimed sessions are not reminded again, the next check drops their entries
+            log.warn("Could not unschedule " + handledKeys.size() + " reminded sessions", e);
+        }
+
+        String baseUrl = applicationProperties.getBaseUrl(UrlMode.CANONICAL);
+        int sent = 0;
+        for (Map.Entry<Integer, List<String>> entry : sessionsByRecipient.entrySet()) {
+            ApplicationUser user = userManager.getUserByKey(userIds.getKey(entry.getKey()));
+            if (user == null || !user.isActive() || user.getEmailAddress() == null) {
+                continue;
+            }
+            if (send(user, entry.getValue(), baseUrl)) {
+                sent++;
+            }
+        }
+        log.info("Sent " + sent + " planning poker reminders for " + dueKeys.size() + " sessions");
+    }
+
+    /**
+     * Marks the reminder of the session as sent. The voters are read first, so a session whose
+     * voters can't be read is not marked.
+     *
+     * @return ids of expected voters who haven't voted, null if the reminder is not to be sent by this node
+     */
+    private BitSet claim(String issueKey, final long now, UserIdTable userIds) {
+        List<String> expectedKeys = voteService.getExpectedVoterKeys(issueKey);
+        List<String> voterKeys = voteService.getVoterKeys(issueKey);
+        final String token = UUID.randomUUID().toString();
+        Properties reminder = recordStore.update(getReminderKey(issueKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties reminder) {
+                if (reminder.isEmpty() || reminder.getProperty("sent") != null
+                        || Long.parseLong(reminder.getProperty("end")) <= now) {
+                    return false;
+                }
+                reminder.setProperty("sent", token);
+                return true;
+            }
+        });
+        if (reminder == null || !token.equals(reminder.getProperty("sent"))) {
+            return null;
+        }
+
+        BitSet nonVoters = new BitSet();
+        for (String voterKey : expectedKeys) {
+            nonVoters.set(userIds.intern(voterKey));
+        }
+        // reminders scheduled before the ballot held the expected voters
+        for (String name : reminder.stringPropertyNames()) {
+            if (name.startsWith("e.")) {
+                nonVoters.set(userIds.intern(name.substring(2)));
+            }
+        }
+        BitSet voters = new BitSet();
+        for (String voterKey : voterKeys) {
+            // voters who were never expected have no id and need none
+            int id = userIds.find(voterKey);
+            if (id >= 0) {
+                voters.set(id);
+            }
+        }
+        nonVoters.andNot(voters);
+        return nonVoters;
+    }
+
+    private boolean send(ApplicationUser user, List<String> issueKeys, String baseUrl) {
+        Email em = new Email(user.getEmailAddress());
+        em.setSubject(issueKeys.size() == 1
+                ? "Planning poker session for issue " + issueKeys.get(0) + " is ending soon."
+                : issueKeys.size() + " planning poker sessions are ending soon.");
+
+        StringWriter body = new StringWriter();
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("issueKeys", issueKeys);
+        context.put("baseUrl", baseUrl);
+        try {
+            templateRenderer.render("views/emails/remind.vm", context, body);
+        } catch (IOException e) {
+            log.error("Could not render planning poker reminder for " + user.getKey(), e);
+            return false;
+        }
+
+        em.setBody(body.toString());
+        em.setMimeType("text/html");
+        ComponentAccessor.getMailQueue().addItem(new SingleMailQueueItem(em));
+        return true;
+    }
+
+    private void schedule(final String issueKey, final long remindAt) {
+        try {
+            recordStore.update(getScheduleKey(issueKey), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties schedule) {
+                    schedule.setProperty("s." + issueKey, Long.toString(remindAt));
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            log.warn("Could not schedule the reminder of session " + issueKey + ", retrying with the next check", e);
+            unscheduled.put(issueKey, remindAt);
+        }
+    }
+
+    private void unschedule(List<String> issueKeys) {
+        Map<String, List<String>> byShard = new HashMap<String, List<String>>();
+        for (String issueKey : issueKeys) {
+            String storeKey = getScheduleKey(issueKey);
+            List<String> shardKeys = byShard.get(storeKey);
+            if (shardKeys == null) {
+                shardKeys = new ArrayList<String>();
+                byShard.put(storeKey, shardKeys);
+            }
+            shardKeys.add(issueKey);
+        }
+        // entries scheduled before the schedule was sharded
+        byShard.put(scheduleKey, issueKeys);
+
+        for (Map.Entry<String, List<String>> shard : byShard.entrySet()) {
+            final List<String> shardKeys = shard.getValue();
+            Properties schedule = recordStore.get(shard.getKey());
+            if (schedule == null) {
+                continue;
+            }
+            recordStore.update(shard.getKey(), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties schedule) {
+                    boolean changed = false;
+                    for (String issueKey : shardKeys) {
+                        changed |= schedule.remove("s." + issueKey) != null;
+                    }
+                    return changed;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return keys of all schedule shards and of the schedule used before it was sharded
+     */
+    private List<String> getScheduleKeys() {
+        List<String> storeKeys = new ArrayList<String>();
+        storeKeys.add(scheduleKey);
+        for (int shard = 0; shard < SCHEDULE_SHARDS; shard++) {
+            storeKeys.add(scheduleKey + "." + shard);
+        }
+        return storeKeys;
+    }
+
+    private String getScheduleKey(String issueKey) {
+        return scheduleKey + "." + ((issueKey.hashCode() & Integer.MAX_VALUE) % SCHEDULE_SHARDS);
+    }
+
+    /**
+     * @return an hour before the end, or the last quarter of shorter sessions
+     */
+    private static long getRemindAt(long start, long end) {
+        return end - Math.min(REMIND_BEFORE_MILLIS, (end - start) / 4);
+    }
+
+    private String getReminderKey(String issueKey) {
+        return getIssueStoreKey(issueKey) + ".reminder";
+    }
+}
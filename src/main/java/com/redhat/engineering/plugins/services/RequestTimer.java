@@ -0,0 +1,172 @@
+package com.redhat.engineering.plugins.services;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Splits the time of one action request into phases. Services mark their phases with
+ * {@link #start(Phase)}, nested phases are charged to the innermost one only, so the phases add
+ * up to the total. Outside of a timed request, e.g. in background threads, marking does nothing.
+ * <p>
+ * Poker action requests are timed by {@link RequestTimingFilter} around the whole dispatch, the
+ * action names the timer and the time after it returns, its view, is charged to render.
+ */
+public class RequestTimer {
+    private static final ThreadLocal<RequestTimer> current = new ThreadLocal<RequestTimer>();
+    private static final Split NOOP = new Split(null);
+
+    public enum Phase {
+        LOAD("load"),
+        STORAGE("storage"),
+        PERMISSION("permission"),
+        RENDER("render"),
+        MAIL("mail"),
+        OTHER("other");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * End of a phase, to be stopped in a finally block.
+     */
+    public static class Split {
+        private final RequestTimer timer;
+
+        private Split(RequestTimer timer) {
+            this.timer = timer;
+        }
+
+        public void stop() {
+            if (timer != null) {
+                timer.exit();
+            }
+        }
+    }
+
+    private String name;
+    private boolean named;
+    private final long started = System.nanoTime();
+    private final long[] nanos = new long[Phase.values().length];
+    private final Deque<Phase> phases = new ArrayDeque<Phase>();
+    private long mark = started;
+    private long ended;
+
+    private RequestTimer(String name) {
+        this.name = name;
+        phases.push(Phase.OTHER);
+    }
+
+    /**
+     * Starts timing the request on this thread.
+     *
+     * @return the timer, null if the thread is already timing a request (e.g. a nested action)
+     */
+    public static RequestTimer begin(String name) {
+        if (current.get() != null) {
+            return null;
+        }
+        RequestTimer timer = new RequestTimer(name);
+        current.set(timer);
+        return timer;
+    }
+
+    /**
+     * Names the request on this thread after the action serving it, only the first action that
+     * runs names it.
+     *
+     * @return true if the request was named, false if another action did or nothing is timed
+     */
+    public static boolean name(String name) {
+        RequestTimer timer = current.get();
+        if (timer == null || timer.named) {
+            return false;
+        }
+        timer.name = name;
+        timer.named = true;
+        return true;
+    }
+
+    /**
+     * Charges the rest of the request on this thread to {@link Phase#RENDER}, used when the action
+     * has returned and its view is rendered.
+     */
+    public static void startRender() {
+        RequestTimer timer = current.get();
+        if (timer != null) {
+            timer.enter(Phase.RENDER);
+        }
+    }
+
+    public static Split start(Phase phase) {
+        RequestTimer timer = current.get();
+        if (timer == null) {
+            return NOOP;
+        }
+        timer.enter(phase);
+        return new Split(timer);
+    }
+
+    /**
+     * Stops timing the request on this thread.
+     */
+    public void end() {
+        charge();
+        ended = mark;
+        current.remove();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTotalMillis() {
+        return (ended - started) / 1000000L;
+    }
+
+    public long getMillis(Phase phase) {
+        return nanos[phase.ordinal()] / 1000000L;
+    }
+
+    /**
+     * @return phases that took any time, e.g. "load=12ms storage=40ms other=3ms"
+     */
+    public String formatBreakdown() {
+        StringBuilder breakdown = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long millis = getMillis(phase);
+            if (millis > 0) {
+                if (breakdown.length() > 0) {
+                    breakdown.append(' ');
+                }
+                breakdown.append(phase.getLabel()).append('=').append(millis).append("ms");
+            }
+        }
+        return breakdown.toString();
+    }
+
+    private void enter(Phase phase) {
+        charge();
+        phases.push(phase);
+    }
+
+    private void exit() {
+        charge();
+        if (phases.size() > 1) {
+            phases.pop();
+        }
+    }
+
+    private void charge() {
+        long now = System.nanoTime();
+        nanos[phases.peek().ordinal()] += now - mark;
+        mark = now;
+    }
+}
@@ -0,0 +1,59 @@
+package com.redhat.engineering.plugins.services;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Times poker action requests from dispatch to the rendered view and records them in the latency
+ * histograms. Until the action names the timer, the request is named after the action alias.
+ */
+public class RequestTimingFilter implements Filter {
+    private final ActionMetrics actionMetrics;
+
+    public RequestTimingFilter(ActionMetrics actionMetrics) {
+        this.actionMetrics = actionMetrics;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        RequestTimer timer = RequestTimer.begin(getAlias((HttpServletRequest) request));
+        if (timer == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            timer.end();
+            actionMetrics.record(timer);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * @return the action alias of the request, e.g. "PokerVote" for /secure/PokerVote!default.jspa
+     */
+    private static String getAlias(HttpServletRequest request) {
+        String path = request.getServletPath();
+        String alias = path.substring(path.lastIndexOf('/') + 1);
+        int end = alias.indexOf('!');
+        if (end < 0) {
+            end = alias.indexOf('.');
+        }
+        return end < 0 ? alias : alias.substring(0, end);
+    }
+}
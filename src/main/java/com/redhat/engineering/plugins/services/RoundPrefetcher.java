@@ -0,0 +1,114 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.engineering.plugins.domain.Round;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the upcoming issues of a round in the background while the current issue is being voted
+ * on, so that advancing the round does not wait for them. The deck is not prefetched, a session
+ * takes the deck version current when it starts.
+ */
+public class RoundPrefetcher implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(RoundPrefetcher.class);
+    private static final int LOOKAHEAD = 2;
+
+    private final IssueManager issueManager;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "planning-poker-round-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Cache<String, Future<Prefetched>> prefetched = CacheBuilder.newBuilder()
+            .maximumSize(500)
+            .expireAfterWrite(30, TimeUnit.MINUTES)
+            .build();
+
+    public RoundPrefetcher(IssueManager issueManager) {
+        this.issueManager = issueManager;
+    }
+
+    /**
+     * Schedules loading of the issues that follow the current one.
+     */
+    public void prefetch(final Round round) {
+        for (final String issueKey : round.getUpcomingIssueKeys(LOOKAHEAD)) {
+            String cacheKey = getCacheKey(round, issueKey);
+            if (prefetched.getIfPresent(cacheKey) != null) {
+                continue;
+            }
+            prefetched.put(cacheKey, executor.submit(new Callable<Prefetched>() {
+                @Override
+                public Prefetched call() {
+                    return load(issueKey);
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return data prefetched for the issue, or null if it was not prefetched or is not loaded yet
+     */
+    public Prefetched take(Round round, String issueKey) {
+        String cacheKey = getCacheKey(round, issueKey);
+        Future<Prefetched> future = prefetched.getIfPresent(cacheKey);
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        prefetched.invalidate(cacheKey);
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Prefetching of issue " + issueKey + " failed", e.getCause());
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        prefetched.invalidateAll();
+    }
+
+    private Prefetched load(String issueKey) {
+        Issue issue = issueManager.getIssueObject(issueKey);
+        return issue == null ? null : new Prefetched(issue);
+    }
+
+    private String getCacheKey(Round round, String issueKey) {
+        return round.getId() + ":" + issueKey;
+    }
+
+    public static class Prefetched {
+        private final Issue issue;
+
+        Prefetched(Issue issue) {
+            this.issue = issue;
+        }
+
+        public Issue getIssue() {
+            return issue;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.permission.ProjectPermissions;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.redhat.engineering.plugins.domain.Round;
+import com.redhat.engineering.plugins.domain.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Stores refinement rounds and moves them from one issue to the next. The session of the current
+ * issue is created when the round reaches it, with the participants of the round as its expected
+ * voters.
+ * <p>
+ * A round is moved with a compare-and-set of its record from the position the facilitator saw, so
+ * a repeated or concurrent "next" moves it once and never skips an issue. The session of the next
+ * issue is opened before the position is moved, so a failure leaves the round where it was and
+ * "next" can be tried again; a session the round already opened on the issue is taken over.
+ * Issues the facilitator may not edit or that have a session of their own are skipped, the round
+ * never replaces a session it did not open.
+ */
+@SuppressWarnings("unchecked")
+public class RoundService extends AbstractPokerService {
+    private static final Logger log = LoggerFactory.getLogger(RoundService.class);
+
+    private final PluginSettings pluginSettings;
+    private final SessionService sessionService;
+    private final IssueManager issueManager;
+    private final UserManager userManager;
+    private final RoundPrefetcher roundPrefetcher;
+    private final PermissionManager permissionManager;
+    private final VersionedRecordStore recordStore;
+    private final String key;
+
+    public RoundService(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus,
+                        SessionService sessionService, IssueManager issueManager, UserManager userManager,
+                        RoundPrefetcher roundPrefetcher, PermissionManager permissionManager) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "round");
+        this.sessionService = sessionService;
+        this.issueManager = issueManager;
+        this.userManager = userManager;
+        this.roundPrefetcher = roundPrefetcher;
+        this.permissionManager = permissionManager;
+        this.key = getKey() + ".rounds";
+    }
+
+    /**
+     * Opens the session of the first issue that can be played and stores the round at it.
+     */
+    public Round create(Round round) {
+        long nextId = nextRoundId();
+
+        round.setId(nextId);
+        this.pluginSettings.put(key + "." + nextId + ".issues", new ArrayList<String>(round.getIssueKeys()));
+        this.pluginSettings.put(key + "." + nextId + ".participants",
+                new ArrayList<String>(round.getParticipantKeys()));
+        round.setPosition(startFrom(round, 0));
+        save(round);
+        return round;
+    }
+
+    public Round get(Long id) {
+        Properties roundProps = recordStore.get(key + "." + id);
+        if (roundProps == null) {
+            return null;
+        }
+
+        Round round = new Round();
+        round.setId(id);
+        round.setAuthor(userManager.getUserByKey(roundProps.getProperty("authorKey")));
+        round.setCreated(new Date(Long.parseLong(roundProps.getProperty("created"))));
+        round.setPosition(Integer.parseInt(roundProps.getProperty("position")));
+        round.setSessionDuration(Long.parseLong(roundProps.getProperty("duration")));
+        round.setIssueKeys(getList(key + "." + id + ".issues"));
+        round.setParticipantKeys(getList(key + "." + id + ".participants"));
+
+        return round;
+    }
+
+    /**
+     * Opens the session of the next issue and ends the session of the current one, if the round is
+     * still at the position the caller saw.
+     *
+     * @return session of the next issue, null if the round is over or was already moved on
+     */
+    public Session advance(Round round, final int seenPosition) {
+        Properties roundProps = recordStore.get(key + "." + round.getId());
+        if (roundProps == null || Integer.parseInt(roundProps.getProperty("position")) != seenPosition) {
+            log.info("Round " + round.getId() + " is no longer at position " + seenPosition + ", leaving it");
+            return null;
+        }
+
+        round.setPosition(seenPosition);
+        String currentKey = round.getCurrentIssueKey();
+        final int nextPosition = startFrom(round, seenPosition + 1);
+
+        final boolean[] moved = new boolean[1];
+        recordStore.update(key + "." + round.getId(), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties roundProps) {
+                moved[0] = false;
+                if (roundProps.isEmpty() || Integer.parseInt(roundProps.getProperty("position")) != seenPosition) {
+                    return false;
+                }
+                roundProps.setProperty("position", Integer.toString(nextPosition));
+                moved[0] = true;
+                return true;
+            }
+        });
+        if (!moved[0]) {
+            // the session opened above is the one the winning request moved the round to
+            log.info("Round " + round.getId() + " was moved past position " + seenPosition + " concurrently");
+            return null;
+        }
+
+        if (currentKey != null) {
+            Session current = sessionService.get(currentKey);
+            if (current != null && round.getId().equals(current.getRoundId())
+                    && current.getEnd().getTime() > System.currentTimeMillis()) {
+                current.setEnd(new Date());
+                sessionService.update(current);
+            }
+        }
+
+        if (round.isFinished()) {
+            return null;
+        }
+        return sessionService.get(round.getCurrentIssueKey());
+    }
+
+    public void delete(Round round) {
+        recordStore.remove(key + "." + round.getId());
+        pluginSettings.remove(key + "." + round.getId() + ".issues");
+        pluginSettings.remove(key + "." + round.getId() + ".participants");
+    }
+
+    /**
+     * Opens the session of the first issue from the position on that can be played, the round is
+     * left at that issue.
+     *
+     * @return position of the issue, the number of issues if none is left
+     */
+    private int startFrom(Round round, int position) {
+        round.setPosition(position);
+        while (!round.isFinished()) {
+            RoundPrefetcher.Prefetched prefetched = roundPrefetcher.take(round, round.getCurrentIssueKey());
+            if (startCurrentSession(round, prefetched)) {
+                break;
+            }
+            round.setPosition(round.getPosition() + 1);
+        }
+        return round.getPosition();
+    }
+
+    /**
+     * @return false if the current issue can't be played in the round and is to be skipped
+     */
+    private boolean startCurrentSession(Round round, RoundPrefetcher.Prefetched prefetched) {
+        roundPrefetcher.prefetch(round);
+
+        String issueKey = round.getCurrentIssueKey();
+        Session existing = sessionService.get(issueKey);
+        if (existing != null) {
+            if (!round.getId().equals(existing.getRoundId())) {
+                log.warn("Issue " + issueKey + " of round " + round.getId() + " already has a session, skipping it");
+                return false;
+            }
+            // opened by an earlier attempt that failed before the round was moved
+            sessionService.expectVoters(existing, round.getParticipantKeys());
+            return true;
+        }
+
+        Issue issue;
+        // the deck version is read when the session is saved, the deck may have changed since prefetching
+        if (prefetched != null && prefetched.getIssue() != null) {
+            issue = prefetched.getIssue();
+        } else {
+            issue = issueManager.getIssueObject(issueKey);
+        }
+        if (issue == null) {
+            log.warn("Issue " + issueKey + " of round " + round.getId() + " does not exist, skipping it");
+            return false;
+        }
+        if (!permissionManager.hasPermission(ProjectPermissions.EDIT_ISSUES, issue, round.getAuthor())) {
+            log.warn("Facilitator of round " + round.getId() + " may not edit issue " + issueKey + ", skipping it");
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Session session = new Session();
+        session.setIssue(issue);
+        session.setAuthor(round.getAuthor());
+        session.setCreated(new Date(now));
+        session.setStart(new Date(now));
+        session.setEnd(new Date(now + round.getSessionDuration()));
+        session.setRoundId(round.getId());
+        sessionService.save(session);
+        sessionService.expectVoters(session, round.getParticipantKeys());
+        return true;
+    }
+
+    private void save(Round round) {
+        final Properties roundProps = new Properties();
+        roundProps.setProperty("authorKey", round.getAuthor().getKey());
+        roundProps.setProperty("created", Long.toString(round.getCreated().getTime()));
+        roundProps.setProperty("position", Integer.toString(round.getPosition()));
+        roundProps.setProperty("duration", Long.toString(round.getSessionDuration()));
+        recordStore.update(key + "." + round.getId(), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties record) {
+                record.putAll(roundProps);
+                return true;
+            }
+        });
+    }
+
+    private long nextRoundId() {
+        Properties counter = recordStore.update(key + ".seq", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties counter) {
+                long last;
+                if (counter.getProperty("last") != null) {
+                    last = Long.parseLong(counter.getProperty("last"));
+                } else {
+                    // counter used before rounds were allocated with a compare-and-set
+                    Object currId = pluginSettings.get(key + ".currId");
+                    last = currId == null ? 0 : Long.parseLong((String) currId);
+                }
+                counter.setProperty("last", Long.toString(last + 1));
+                return true;
+            }
+        });
+        return Long.parseLong(counter.getProperty("last"));
+    }
+
+    private <T> List<T> getList(String storeKey) {
+        List<T> result = (List<T>) pluginSettings.get(storeKey);
+        if (result == null) {
+            result = new ArrayList<T>();
+        }
+        return result;
+    }
+}
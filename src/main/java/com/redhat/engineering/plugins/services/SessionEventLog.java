@@ -0,0 +1,187 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.engineering.plugins.domain.SessionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Append-only history of sessions. Each time a session is created on an issue a new generation
+ * starts, older generations stay for auditing. An append reserves the next sequence number in the
+ * versioned head record of the issue and writes the event under its own key, events are never
+ * changed afterwards, so they are cached once read.
+ * <p>
+ * Votes are written only here. {@link VoteService} keeps a snapshot of the votes up to a sequence
+ * number in the ballot record and rebuilds the current votes from it and the events after it.
+ * An event may be missing for a moment, between the append reserving its number and writing it.
+ */
+public class SessionEventLog extends AbstractPokerService {
+    private static final Logger log = LoggerFactory.getLogger(SessionEventLog.class);
+
+    private final PluginSettings pluginSettings;
+    private final VersionedRecordStore recordStore;
+    // Events by store key, they never change once written
+    private final Cache<String, Properties> events = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .build();
+
+    public SessionEventLog(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "log");
+    }
+
+    /**
+     * Last reserved sequence number of the current generation of an issue.
+     */
+    public static class Position {
+        private final long generation;
+        private final long seq;
+
+        public Position(long generation, long seq) {
+            this.generation = generation;
+            this.seq = seq;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+    }
+
+    /**
+     * Starts a new generation, used when a session is (re)created on the issue.
+     *
+     * @return the new generation
+     */
+    public long startGeneration(String issueKey) {
+        Properties head = recordStore.update(getHeadKey(issueKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties head) {
+                head.setProperty("generation", Long.toString(getGeneration(head) + 1));
+                head.setProperty("seq", "0");
+                return true;
+            }
+        });
+        return getGeneration(head);
+    }
+
+    /**
+     * @return generation and last sequence number of the issue, 0 and 0 if nothing was logged
+     */
+    public Position getPosition(String issueKey) {
+        Properties head = recordStore.get(getHeadKey(issueKey));
+        return head == null ? new Position(0, 0) : new Position(getGeneration(head), getSeq(head));
+    }
+
+    public SessionEvent append(String issueKey, SessionEvent.Type type, String userKey, String value, String comment) {
+        Properties head = recordStore.update(getHeadKey(issueKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties head) {
+                head.setProperty("generation", Long.toString(getGeneration(head)));
+                head.setProperty("seq", Long.toString(getSeq(head) + 1));
+                return true;
+            }
+        });
+        long generation = getGeneration(head);
+        long seq = getSeq(head);
+
+        SessionEvent event = new SessionEvent();
+        event.setSeq(seq);
+        event.setType(type);
+        event.setTime(new Date());
+        event.setUserKey(userKey);
+        event.setValue(value);
+        event.setComment(comment);
+        Properties eventProps = toProperties(event);
+        String eventKey = getGenerationKey(issueKey, generation) + "." + seq;
+        pluginSettings.put(eventKey, eventProps);
+        events.put(eventKey, eventProps);
+        return event;
+    }
+
+    /**
+     * @return events of the current generation, oldest first
+     */
+    public List<SessionEvent> getEvents(String issueKey) {
+        Position position = getPosition(issueKey);
+        return getEvents(issueKey, position.getGeneration(), 1, position.getSeq());
+    }
+
+    /**
+     * @return events of the generation from and to the given sequence numbers, oldest first. Events
+     * that are reserved but not written are left out.
+     */
+    public List<SessionEvent> getEvents(String issueKey, long generation, long fromSeq, long toSeq) {
+        List<SessionEvent> result = new ArrayList<SessionEvent>();
+        String generationKey = getGenerationKey(issueKey, generation);
+        for (long seq = fromSeq; seq <= toSeq; seq++) {
+            String eventKey = generationKey + "." + seq;
+            Properties eventProps = events.getIfPresent(eventKey);
+            if (eventProps == null) {
+                eventProps = (Properties) pluginSettings.get(eventKey);
+                if (eventProps == null) {
+                    // reserved by an append that has not written its event yet
+                    log.debug("Event " + seq + " of " + generationKey + " is missing");
+                    continue;
+                }
+                events.put(eventKey, eventProps);
+            }
+            result.add(toEvent(seq, eventProps));
+        }
+        return result;
+    }
+
+    private static Properties toProperties(SessionEvent event) {
+        Properties eventProps = new Properties();
+        eventProps.setProperty("type", event.getType().name());
+        eventProps.setProperty("time", Long.toString(event.getTime().getTime()));
+        if (event.getUserKey() != null) {
+            eventProps.setProperty("user", event.getUserKey());
+        }
+        if (event.getValue() != null) {
+            eventProps.setProperty("value", event.getValue());
+        }
+        if (event.getComment() != null) {
+            eventProps.setProperty("comment", event.getComment());
+        }
+        return eventProps;
+    }
+
+    private static SessionEvent toEvent(long seq, Properties eventProps) {
+        SessionEvent event = new SessionEvent();
+        event.setSeq(seq);
+        event.setType(SessionEvent.Type.valueOf(eventProps.getProperty("type")));
+        event.setTime(new Date(Long.parseLong(eventProps.getProperty("time"))));
+        event.setUserKey(eventProps.getProperty("user"));
+        event.setValue(eventProps.getProperty("value"));
+        event.setComment(eventProps.getProperty("comment"));
+        return event;
+    }
+
+    private static long getGeneration(Properties head) {
+        return Long.parseLong(head.getProperty("generation", "0"));
+    }
+
+    private static long getSeq(Properties head) {
+        return Long.parseLong(head.getProperty("seq", "0"));
+    }
+
+    private String getHeadKey(String issueKey) {
+        return getIssueStoreKey(issueKey) + ".log";
+    }
+
+    private String getGenerationKey(String issueKey, long generation) {
+        return getIssueStoreKey(issueKey) + ".log." + generation;
+    }
+}
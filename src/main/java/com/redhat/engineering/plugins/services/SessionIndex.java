@@ -0,0 +1,647 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.engineering.plugins.domain.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Secondary indexes of sessions: all sessions, sessions per project and sessions per author. Every
+ * session gets a sequence number when it is created, index entries are ordered by it and carry
+ * the author and the start and end of the session, so listings can be filtered by status without
+ * loading sessions. Pages continue from an opaque cursor (the last sequence number returned),
+ * so a deep page costs the same as the first one.
+ * <p>
+ * An index is split into buckets of consecutive sequence numbers, each a
+ * versioned record with the entries {@code e.<seq>} = {@code issueKey|authorKey|start|end}, so a
+ * write rewrites one small record and a page reads the few newest buckets. The current sequence
+ * number of an issue is kept in one of a few lookup records ({@code k.<issueKey>} =
+ * seq), sequence numbers come from a compare-and-set counter so nodes never share one. Indexes are
+ * built from the session list on first use, by the one node that claims the build.
+ * <p>
+ * Each user also has a membership record of the sessions they were invited to or voted in, with
+ * the entries {@code u.<issueKey>} = {@code seq|voted}. Start and end come from the index of all
+ * sessions, so they never go stale, and an entry whose seq differs from the current session of the
+ * issue belongs to a replaced or deleted session and is skipped.
+ */
+@SuppressWarnings("unchecked")
+public class SessionIndex extends AbstractPokerService {
+    private static final Logger log = LoggerFactory.getLogger(SessionIndex.class);
+    private static final String CURSOR_PREFIX = "v1:";
+    private static final int BUCKET_SIZE = 500;
+    private static final int KEY_SHARDS = 16;
+    // a build claimed longer ago than this is taken to have died with its node
+    private static final long BUILD_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    private final PluginSettings pluginSettings;
+    private final VersionedRecordStore recordStore;
+    // session and ballot records are read directly while building the indexes
+    private final SessionRecordCodec sessionCodec = new SessionRecordCodec();
+    private final BallotRecordCodec ballotCodec = new BallotRecordCodec();
+    private final String key;
+    // set once this node saw the indexes built
+    private volatile boolean built;
+    // Parsed indexes by store key, replaced whenever the index version changes
+    private final Cache<String, Parsed> parsed = CacheBuilder.newBuilder().maximumSize(500).build();
+
+    public SessionIndex(PluginSettingsFactory pluginSettingsFactory, InvalidationBus invalidationBus) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "index");
+        this.key = getKey() + ".index";
+    }
+
+    /**
+     * Session a user was invited to or voted in.
+     */
+    public static class Membership {
+        private final String issueKey;
+        private final long start;
+        private final long end;
+        private final boolean voted;
+
+        public Membership(String issueKey, long start, long end, boolean voted) {
+            this.issueKey = issueKey;
+            this.start = start;
+            this.end = end;
+            this.voted = voted;
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public boolean isVoted() {
+            return voted;
+        }
+
+        public Status getStatus() {
+            return SessionIndex.getStatus(start, end, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * One page of issue keys, newest session first.
+     */
+    public static class Page {
+        private final List<String> issueKeys;
+        private final List<Long> starts;
+        private final String nextCursor;
+
+        public Page(List<String> issueKeys, List<Long> starts, String nextCursor) {
+            this.issueKeys = issueKeys;
+            this.starts = starts;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<String> getIssueKeys() {
+            return issueKeys;
+        }
+
+        /**
+         * @return start times of the sessions, in the order of the issue keys
+         */
+        public List<Long> getStarts() {
+            return starts;
+        }
+
+        /**
+         * @return cursor of the following page, null if this is the last one
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private static class Parsed {
+        private final long version;
+        private final long[] seqs;
+        private final String[][] entries;
+
+        private Parsed(long version, long[] seqs, String[][] entries) {
+            this.version = version;
+            this.seqs = seqs;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Adds a newly created session, replacing the entries of an earlier session on the issue.
+     */
+    public void add(String issueKey, String authorKey, long start, long end) {
+        ensureBuilt();
+        remove(issueKey);
+        index(issueKey, nextSeq(), toEntry(issueKey, authorKey, start, end));
+    }
+
+    /**
+     * Updates start and end of an indexed session.
+     */
+    public void update(String issueKey, long start, long end) {
+        ensureBuilt();
+        String seq = getSeq(issueKey);
+        String[] entry = seq == null ? null : getEntry(getAllKey(), Long.parseLong(seq));
+        if (entry == null) {
+            log.warn("Session " + issueKey + " is not indexed");
+            return;
+        }
+        String updated = toEntry(issueKey, entry[1], start, end);
+        long seqNumber = Long.parseLong(seq);
+        put(getAllKey(), seqNumber, updated);
+        put(getProjectKey(issueKey), seqNumber, updated);
+        put(getAuthorKey(entry[1]), seqNumber, updated);
+    }
+
+    public void remove(final String issueKey) {
+        String seq = getSeq(issueKey);
+        if (seq == null) {
+            return;
+        }
+        long seqNumber = Long.parseLong(seq);
+        String[] entry = getEntry(getAllKey(), seqNumber);
+        delete(getAllKey(), seqNumber);
+        delete(getProjectKey(issueKey), seqNumber);
+        if (entry != null) {
+            delete(getAuthorKey(entry[1]), seqNumber);
+        }
+        recordStore.update(getKeysKey(issueKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties keys) {
+                return keys.remove("k." + issueKey) != null;
+            }
+        });
+    }
+
+    /**
+     * Adds the session to the memberships of the invited users.
+     */
+    public void invite(String issueKey, Collection<String> userKeys) {
+        ensureBuilt();
+        String seq = getSeq(issueKey);
+        if (seq == null) {
+            return;
+        }
+        for (String userKey : userKeys) {
+            putMember(userKey, issueKey, seq, false);
+        }
+    }
+
+    /**
+     * Removes the session from the memberships of users no longer invited, unless they voted in it.
+     */
+    public void uninvite(final String issueKey, Collection<String> userKeys) {
+        if (userKeys.isEmpty()) {
+            return;
+        }
+        ensureBuilt();
+        final String seq = getSeq(issueKey);
+        if (seq == null) {
+            return;
+        }
+        for (String userKey : userKeys) {
+            recordStore.update(getMemberKey(userKey), new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties member) {
+                    if (!(seq + "|0").equals(member.getProperty("u." + issueKey))) {
+                        return false;
+                    }
+                    member.remove("u." + issueKey);
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks the session as voted in the membership of the voter.
+     */
+    public void voted(String issueKey, String userKey) {
+        ensureBuilt();
+        String seq = getSeq(issueKey);
+        if (seq != null) {
+            putMember(userKey, issueKey, seq, true);
+        }
+    }
+
+    /**
+     * @return sessions the user was invited to or voted in, newest first
+     */
+    public List<Membership> getMemberships(String userKey) {
+        ensureBuilt();
+        List<Membership> memberships = new ArrayList<Membership>();
+        Properties member = recordStore.get(getMemberKey(userKey));
+        if (member == null) {
+            return memberships;
+        }
+
+        final Map<String, Long> seqs = new HashMap<String, Long>();
+        for (String name : member.stringPropertyNames()) {
+            if (!name.startsWith("u.")) {
+                continue;
+            }
+            String issueKey = name.substring(2);
+            String[] value = member.getProperty(name).split("\\|");
+            String seq = getSeq(issueKey);
+            String[] entry = value[0].equals(seq) ? getEntry(getAllKey(), Long.parseLong(seq)) : null;
+            if (entry == null) {
+                continue;
+            }
+            memberships.add(new Membership(issueKey, Long.parseLong(entry[2]), Long.parseLong(entry[3]),
+                    "1".equals(value[1])));
+            seqs.put(issueKey, Long.parseLong(seq));
+        }
+        Collections.sort(memberships, new Comparator<Membership>() {
+            @Override
+            public int compare(Membership a, Membership b) {
+                return seqs.get(b.getIssueKey()).compareTo(seqs.get(a.getIssueKey()));
+            }
+        });
+        return memberships;
+    }
+
+    /**
+     * @return sessions in progress the user was invited to and hasn't voted in yet, newest first
+     */
+    public List<Membership> getPending(String userKey) {
+        List<Membership> pending = new ArrayList<Membership>();
+        for (Membership membership : getMemberships(userKey)) {
+            if (!membership.isVoted() && membership.getStatus() == Status.IN_PROGRESS) {
+                pending.add(membership);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @param projectKey only sessions of this project, null for all
+     * @param authorKey  only sessions of this author, null for all
+     * @param status     only sessions in this status now, null for all
+     * @param cursor     cursor returned with the previous page, null for the first page
+     */
+    public Page query(String projectKey, String authorKey, Status status, String cursor, int limit) {
+        ensureBuilt();
+        String storeKey;
+        if (authorKey != null) {
+            storeKey = getAuthorKey(authorKey);
+        } else if (projectKey != null) {
+            storeKey = key + ".project." + projectKey;
+        } else {
+            storeKey = getAllKey();
+        }
+
+        // entries are sorted by seq ascending, the page starts below the cursor and walks down
+        Long cursorSeq = parseCursor(cursor);
+        long below = cursorSeq != null ? cursorSeq : getLastSeq() + 1;
+        long now = System.currentTimeMillis();
+        String keyPrefix = projectKey == null ? null : projectKey + "-";
+        List<String> issueKeys = new ArrayList<String>();
+        List<Long> starts = new ArrayList<Long>();
+        long lastSeq = 0;
+        boolean more = false;
+        for (long bucket = (below - 1) / BUCKET_SIZE; bucket >= 0 && below > 1 && !more; bucket--) {
+            Parsed index = getParsed(storeKey + "." + bucket);
+            int found = Arrays.binarySearch(index.seqs, below);
+            for (int position = (found >= 0 ? found : -found - 1) - 1; position >= 0; position--) {
+                if (issueKeys.size() >= limit) {
+                    more = true;
+                    break;
+                }
+                String[] entry = index.entries[position];
+                if (keyPrefix != null && !entry[0].startsWith(keyPrefix)) {
+                    continue;
+                }
+                if (status != null && getStatus(Long.parseLong(entry[2]), Long.parseLong(entry[3]), now) != status) {
+                    continue;
+                }
+                issueKeys.add(entry[0]);
+                starts.add(Long.parseLong(entry[2]));
+                lastSeq = index.seqs[position];
+            }
+            if (issueKeys.size() >= limit && bucket > 0) {
+                // older buckets may still hold entries
+                more = true;
+            }
+        }
+        return new Page(issueKeys, starts, more ? formatCursor(lastSeq) : null);
+    }
+
+    /**
+     * Builds the indexes and memberships if they were never built. One node claims the build with a
+     * compare-and-set, the others keep serving what is there until the build is done.
+     */
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        synchronized (this) {
+            if (built) {
+                return;
+            }
+            if (pluginSettings.get(key + ".built.v2") == null) {
+                if (!claimBuild()) {
+                    return;
+                }
+                buildIndexes();
+            }
+            ensureMembersBuilt();
+            built = true;
+        }
+    }
+
+    /**
+     * @return true if this node may build the indexes, i.e. no other node started building them
+     * within {@link #BUILD_TIMEOUT_MILLIS}
+     */
+    private boolean claimBuild() {
+        final String node = UUID.randomUUID().toString();
+        Properties claim = recordStore.update(key + ".build", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties claim) {
+                String started = claim.getProperty("started");
+                if (started != null && Long.parseLong(started) + BUILD_TIMEOUT_MILLIS > System.currentTimeMillis()) {
+                    return false;
+                }
+                claim.setProperty("node", node);
+                claim.setProperty("started", Long.toString(System.currentTimeMillis()));
+                return true;
+            }
+        });
+        return node.equals(claim.getProperty("node"));
+    }
+
+    private void buildIndexes() {
+        List<String> allSessions = (List<String>) pluginSettings.get(getKey() + ".all");
+        int indexed = 0;
+        if (allSessions != null) {
+            for (String issueKey : allSessions) {
+                // indexed by an earlier build that did not finish, or created since
+                if (getSeq(issueKey) != null) {
+                    continue;
+                }
+                Properties sessionProps = sessionCodec.decode(pluginSettings.get(getIssueStoreKey(issueKey)));
+                if (sessionProps == null) {
+                    continue;
+                }
+                String authorKey = sessionProps.getProperty("authorKey");
+                String entry = toEntry(issueKey, authorKey, Long.parseLong(sessionProps.getProperty("start")),
+                        Long.parseLong(sessionProps.getProperty("end")));
+                index(issueKey, nextSeq(), entry);
+                indexed++;
+            }
+        }
+        pluginSettings.put(key + ".built.v2", Long.toString(System.currentTimeMillis()));
+        log.info("Built planning poker session indexes for " + indexed + " sessions");
+    }
+
+    /**
+     * Builds the memberships from the ballots and reminders of all sessions if they were never built.
+     */
+    private void ensureMembersBuilt() {
+        if (pluginSettings.get(key + ".members.built.v2") != null) {
+            return;
+        }
+        List<String> allSessions = (List<String>) pluginSettings.get(getKey() + ".all");
+        int members = 0;
+        if (allSessions != null) {
+            for (String issueKey : allSessions) {
+                String seq = getSeq(issueKey);
+                if (seq == null) {
+                    continue;
+                }
+                String issueStoreKey = getIssueStoreKey(issueKey);
+                Set<String> voters = new HashSet<String>();
+                Set<String> invited = new HashSet<String>();
+                Properties ballot = ballotCodec.decode(pluginSettings.get(issueStoreKey + ".ballot"));
+                if (ballot != null) {
+                    collect(ballot, "n.", voters);
+                    collect(ballot, "x.", invited);
+                }
+                List<String> legacyVoters = (List<String>) pluginSettings.get(issueStoreKey + ".voters");
+                if (legacyVoters != null) {
+                    voters.addAll(legacyVoters);
+                }
+                Properties reminder = (Properties) pluginSettings.get(issueStoreKey + ".reminder");
+                if (reminder != null) {
+                    collect(reminder, "e.", invited);
+                }
+                invited.removeAll(voters);
+                for (String userKey : voters) {
+                    putMember(userKey, issueKey, seq, true);
+                    members++;
+                }
+                for (String userKey : invited) {
+                    putMember(userKey, issueKey, seq, false);
+                    members++;
+                }
+            }
+        }
+        pluginSettings.put(key + ".members.built.v2", Long.toString(System.currentTimeMillis()));
+        log.info("Built planning poker memberships, " + members + " entries");
+    }
+
+    private static void collect(Properties record, String prefix, Set<String> userKeys) {
+        for (String name : record.stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                userKeys.add(name.substring(prefix.length()));
+            }
+        }
+    }
+
+    private void putMember(String userKey, final String issueKey, final String seq, final boolean voted) {
+        recordStore.update(getMemberKey(userKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties member) {
+                String previous = member.getProperty("u." + issueKey);
+                String value = seq + "|" + (voted ? "1" : "0");
+                // an invitation does not take back a vote of the same session
+                if (value.equals(previous) || (!voted && (seq + "|1").equals(previous))) {
+                    return false;
+                }
+                member.setProperty("u." + issueKey, value);
+                return true;
+            }
+        });
+    }
+
+    private String getSeq(String issueKey) {
+        Properties keys = recordStore.get(getKeysKey(issueKey));
+        return keys == null ? null : keys.getProperty("k." + issueKey);
+    }
+
+    private void index(final String issueKey, final long seq, String entry) {
+        recordStore.update(getKeysKey(issueKey), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties keys) {
+                keys.setProperty("k." + issueKey, Long.toString(seq));
+                return true;
+            }
+        });
+        put(getAllKey(), seq, entry);
+        put(getProjectKey(issueKey), seq, entry);
+        put(getAuthorKey(entry.split("\\|", -1)[1]), seq, entry);
+    }
+
+    private long nextSeq() {
+        Properties counter = recordStore.update(key + ".seq", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties counter) {
+                long last;
+                if (counter.getProperty("last") != null) {
+                    last = Long.parseLong(counter.getProperty("last"));
+                } else {
+                    // counter of the first index layout
+                    Object currId = pluginSettings.get(key + ".currId");
+                    last = currId == null ? 0 : Long.parseLong((String) currId);
+                }
+                counter.setProperty("last", Long.toString(last + 1));
+                return true;
+            }
+        });
+        return Long.parseLong(counter.getProperty("last"));
+    }
+
+    private long getLastSeq() {
+        Properties counter = recordStore.get(key + ".seq");
+        return counter == null ? 0 : Long.parseLong(counter.getProperty("last"));
+    }
+
+    private void put(String indexKey, final long seq, final String entry) {
+        recordStore.update(getBucketKey(indexKey, seq), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties bucket) {
+                bucket.setProperty("e." + seq, entry);
+                return true;
+            }
+        });
+    }
+
+    private void delete(String indexKey, final long seq) {
+        recordStore.update(getBucketKey(indexKey, seq), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties bucket) {
+                return bucket.remove("e." + seq) != null;
+            }
+        });
+    }
+
+    private String[] getEntry(String indexKey, long seq) {
+        Properties bucket = recordStore.get(getBucketKey(indexKey, seq));
+        String entry = bucket == null ? null : bucket.getProperty("e." + seq);
+        return entry == null ? null : entry.split("\\|", -1);
+    }
+
+    private Parsed getParsed(String storeKey) {
+        Properties index = recordStore.get(storeKey);
+        long version = VersionedRecordStore.getVersion(index);
+        Parsed cached = parsed.getIfPresent(storeKey);
+        if (cached != null && cached.version == version) {
+            return cached;
+        }
+
+        List<Long> seqList = new ArrayList<Long>();
+        if (index != null) {
+            for (String name : index.stringPropertyNames()) {
+                if (name.startsWith("e.")) {
+                    seqList.add(Long.parseLong(name.substring(2)));
+                }
+            }
+        }
+        long[] seqs = new long[seqList.size()];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = seqList.get(i);
+        }
+        Arrays.sort(seqs);
+        String[][] entries = new String[seqs.length][];
+        for (int i = 0; i < seqs.length; i++) {
+            entries[i] = index.getProperty("e." + seqs[i]).split("\\|", -1);
+        }
+
+        Parsed result = new Parsed(version, seqs, entries);
+        parsed.put(storeKey, result);
+        return result;
+    }
+
+    private static Status getStatus(long start, long end, long now) {
+        if (now < start) {
+            return Status.SCHEDULED;
+        } else if (now < end) {
+            return Status.IN_PROGRESS;
+        } else {
+            return Status.FINISHED;
+        }
+    }
+
+    private static String toEntry(String issueKey, String authorKey, long start, long end) {
+        return issueKey + "|" + authorKey + "|" + start + "|" + end;
+    }
+
+    private static String formatCursor(long seq) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + seq).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Long parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(CURSOR_PREFIX)) {
+                return null;
+            }
+            return Long.parseLong(decoded.substring(CURSOR_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            // also covers NumberFormatException, an invalid cursor starts over
+            return null;
+        }
+    }
+
+    private static String getBucketKey(String indexKey, long seq) {
+        return indexKey + "." + seq / BUCKET_SIZE;
+    }
+
+    private String getKeysKey(String issueKey) {
+        return key + ".keys." + ((issueKey.hashCode() & Integer.MAX_VALUE) % KEY_SHARDS);
+    }
+
+    private String getAllKey() {
+        return key + ".all";
+    }
+
+    private String getProjectKey(String issueKey) {
+        return key + ".project." + issueKey.substring(0, issueKey.lastIndexOf('-'));
+    }
+
+    private String getAuthorKey(String authorKey) {
+        return key + ".author." + authorKey;
+    }
+
+    private String getMemberKey(String userKey) {
+        return key + ".member." + userKey;
+    }
+}
@@ -0,0 +1,130 @@
+package com.redhat.engineering.plugins.services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Session records: the creation time as a varint, start and end as differences to it, the author
+ * key and the optional deck version, round, estimate and analytics flag behind a flags byte.
+ */
+public class SessionRecordCodec extends CompactRecordCodec {
+    private static final int HAS_TIMES = 1;
+    private static final int HAS_AUTHOR = 2;
+    private static final int HAS_DECK = 4;
+    private static final int HAS_ROUND = 8;
+    private static final int HAS_ESTIMATE = 16;
+    private static final int ANALYTICS = 32;
+
+    @Override
+    protected void writeFields(DataOutputStream out, Properties record) throws IOException {
+        int flags = 0;
+        long[] times = takeTimes(record);
+        if (times != null) {
+            flags |= HAS_TIMES;
+        }
+        String author = (String) record.remove("authorKey");
+        if (author != null) {
+            flags |= HAS_AUTHOR;
+        }
+        long deckVersion = takeLong(record, "deckVersion");
+        if (deckVersion >= 0) {
+            flags |= HAS_DECK;
+        }
+        long roundId = takeLong(record, "roundId");
+        if (roundId >= 0) {
+            flags |= HAS_ROUND;
+        }
+        Double estimate = takeEstimate(record);
+        if (estimate != null) {
+            flags |= HAS_ESTIMATE;
+        }
+        if ("true".equals(record.getProperty("analytics"))) {
+            record.remove("analytics");
+            flags |= ANALYTICS;
+        }
+
+        out.writeByte(flags);
+        if (times != null) {
+            writeVarLong(out, times[0]);
+            writeSignedVarLong(out, times[1] - times[0]);
+            writeSignedVarLong(out, times[2] - times[1]);
+        }
+        if (author != null) {
+            writeString(out, author);
+        }
+        if (deckVersion >= 0) {
+            writeVarLong(out, deckVersion);
+        }
+        if (roundId >= 0) {
+            writeVarLong(out, roundId);
+        }
+        if (estimate != null) {
+            out.writeDouble(estimate);
+        }
+    }
+
+    @Override
+    protected void readFields(DataInputStream in, Properties record) throws IOException {
+        int flags = in.readUnsignedByte();
+        if ((flags & HAS_TIMES) != 0) {
+            long created = readVarLong(in);
+            long start = created + readSignedVarLong(in);
+            long end = start + readSignedVarLong(in);
+            record.setProperty("created", Long.toString(created));
+            record.setProperty("start", Long.toString(start));
+            record.setProperty("end", Long.toString(end));
+        }
+        if ((flags & HAS_AUTHOR) != 0) {
+            record.setProperty("authorKey", readString(in));
+        }
+        if ((flags & HAS_DECK) != 0) {
+            record.setProperty("deckVersion", Long.toString(readVarLong(in)));
+        }
+        if ((flags & HAS_ROUND) != 0) {
+            record.setProperty("roundId", Long.toString(readVarLong(in)));
+        }
+        if ((flags & HAS_ESTIMATE) != 0) {
+            record.setProperty("estimate", Double.toString(in.readDouble()));
+        }
+        if ((flags & ANALYTICS) != 0) {
+            record.setProperty("analytics", "true");
+        }
+    }
+
+    /**
+     * @return created, start and end, null unless all three are non-negative numbers
+     */
+    private static long[] takeTimes(Properties record) {
+        Properties copy = new Properties();
+        copy.putAll(record);
+        long created = takeLong(copy, "created");
+        long start = takeLong(copy, "start");
+        long end = takeLong(copy, "end");
+        if (created < 0 || start < 0 || end < 0) {
+            return null;
+        }
+        record.remove("created");
+        record.remove("start");
+        record.remove("end");
+        return new long[]{created, start, end};
+    }
+
+    private static Double takeEstimate(Properties record) {
+        String value = record.getProperty("estimate");
+        if (value == null) {
+            return null;
+        }
+        try {
+            double estimate = Double.parseDouble(value);
+            if (Double.toString(estimate).equals(value)) {
+                record.remove("estimate");
+                return estimate;
+            }
+        } catch (NumberFormatException e) {
+            // kept as a plain entry
+        }
+        return null;
+    }
+}
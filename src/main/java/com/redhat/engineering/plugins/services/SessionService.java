@@ -5,20 +5,26 @@ import com.atlassian.jira.datetime.DateTimeFormatter;
 import com.atlassian.jira.datetime.DateTimeStyle;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.security.JiraAuthenticationContext;
-import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.redhat.engineering.plugins.domain.Resolver;
 import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.SessionEvent;
 import com.redhat.engineering.plugins.domain.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 
 /**
+ * Stored sessions are read without their issue and author, {@link Session} looks them up when they
+ * are first used. Callers serving a session to a user should read it with {@link #getVisible(String)}.
+ *
  * @author vdedik@redhat.com
  */
 @SuppressWarnings("unchecked")
@@ -29,71 +35,214 @@ public class SessionService extends AbstractPokerService {
     private final PluginSettings pluginSettings;
     private final IssueService issueService;
     private final JiraAuthenticationContext authContext;
-    private final UserManager userManager;
     private final VoteService voteService;
+    private final ConfigService configService;
+    private final IssuePropertyPublisher issuePropertyPublisher;
+    private final VersionedRecordStore recordStore;
+    private final PokerRequestContext requestContext;
+    private final SessionEventLog eventLog;
+    private final SessionIndex sessionIndex;
+    private final ReminderService reminderService;
+    private volatile EndListener endListener;
+    private final Resolver<Issue> issueResolver = new Resolver<Issue>() {
+        @Override
+        public Issue resolve(String issueKey) {
+            RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.LOAD);
+            try {
+                IssueService.IssueResult issueResult = issueService.getIssue(authContext.getUser(), issueKey);
+                if (!issueResult.isValid() || issueResult.getIssue() == null) {
+                    log.warn("Could not retrieve issue: " + issueKey + " - " +
+                             (issueResult.getErrorCollection().hasAnyErrors() ?
+                              issueResult.getErrorCollection().toString() : "Issue is null"));
+                    return null;
+                }
+                return issueResult.getIssue();
+            } finally {
+                split.stop();
+            }
+        }
+    };
+    private final Resolver<ApplicationUser> authorResolver = new Resolver<ApplicationUser>() {
+        @Override
+        public ApplicationUser resolve(String userKey) {
+            return requestContext.getUserByKey(userKey);
+        }
+    };
+
+    /**
+     * Told when a session is created or its end changes.
+     */
+    public interface EndListener {
+        void endChanged(String issueKey, long end);
+    }
 
     public SessionService(PluginSettingsFactory pluginSettingsFactory, IssueService issueService,
-                          JiraAuthenticationContext authContext, UserManager userManager,
-                          VoteService voteService) {
-        this.pluginSettings = pluginSettingsFactory.createGlobalSettings();
+                          JiraAuthenticationContext authContext,
+                          VoteService voteService, ConfigService configService,
+                          IssuePropertyPublisher issuePropertyPublisher, InvalidationBus invalidationBus,
+                          PokerRequestContext requestContext, SessionEventLog eventLog,
+                          SessionIndex sessionIndex, ReminderService reminderService) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
         this.issueService = issueService;
         this.authContext = authContext;
-        this.userManager = userManager;
         this.voteService = voteService;
+        this.configService = configService;
+        this.issuePropertyPublisher = issuePropertyPublisher;
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "session", new SessionRecordCodec());
+        this.requestContext = requestContext;
+        this.eventLog = eventLog;
+        this.sessionIndex = sessionIndex;
+        this.reminderService = reminderService;
+        voteService.setQuorumListener(new VoteService.QuorumListener() {
+            @Override
+            public void reached(Session session) {
+                if (getStatus(session) == Status.IN_PROGRESS) {
+                    log.info("All expected voters voted, ending session " + session.getIssueKey());
+                    session.setEnd(new Date());
+                    update(session);
+                }
+            }
+        });
+    }
+
+    public void setEndListener(EndListener endListener) {
+        this.endListener = endListener;
     }
 
     public void save(Session session) {
-        Properties sessionProps = new Properties();
+        if (session.getDeckVersion() == null) {
+            String projectKey = session.getIssue().getProjectObject().getKey();
+            session.setDeckVersion(configService.getDeck(projectKey).getVersion());
+        }
+
+        final Properties sessionProps = new Properties();
         sessionProps.setProperty("created", Long.toString(session.getCreated().getTime()));
         sessionProps.setProperty("start", Long.toString(session.getStart().getTime()));
         sessionProps.setProperty("end", Long.toString(session.getEnd().getTime()));
-        sessionProps.setProperty("authorKey", session.getAuthor().getKey());
+        sessionProps.setProperty("authorKey", session.getAuthorKey());
+        sessionProps.setProperty("deckVersion", Long.toString(session.getDeckVersion()));
+        if (session.getRoundId() != null) {
+            sessionProps.setProperty("roundId", Long.toString(session.getRoundId()));
+        }
 
-        pluginSettings.put(getIssueStoreKey(session.getIssue()), sessionProps);
+        // A new session replaces the previous one, the version keeps counting so that stale writers still lose
+        Properties written = recordStore.update(getIssueStoreKey(session.getIssueKey()), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties record) {
+                record.clear();
+                record.putAll(sessionProps);
+                return true;
+            }
+        });
+        session.setVersion(VersionedRecordStore.getVersion(written));
+        requestContext.put("session", session.getIssueKey(), session);
+        // votes of the new session are logged in a new generation, the ballot snapshot starts at it
+        eventLog.startGeneration(session.getIssueKey());
         voteService.removeAllVotes(session);
+        reminderService.cancel(session.getIssueKey());
+        eventLog.append(session.getIssueKey(), SessionEvent.Type.CREATED, session.getAuthorKey(),
+                Long.toString(session.getEnd().getTime()), null);
 
         List<String> allSessions = (List<String>) pluginSettings.get(getKey() + ".all");
         if (allSessions == null) {
             allSessions = new ArrayList<String>();
         }
-        if (allSessions.contains(session.getIssue().getKey())) {
-            allSessions.remove(session.getIssue().getKey());
+        if (allSessions.contains(session.getIssueKey())) {
+            allSessions.remove(session.getIssueKey());
         }
-        allSessions.add(session.getIssue().getKey());
+        allSessions.add(session.getIssueKey());
         pluginSettings.put(getKey() + ".all", allSessions);
+        sessionIndex.add(session.getIssueKey(), session.getAuthorKey(),
+                session.getStart().getTime(), session.getEnd().getTime());
+        fireEndChanged(session);
+
+        issuePropertyPublisher.publish(session, 0);
     }
 
-    public Session get(String issueKey) {
+    /**
+     * Replaces the users expected to vote in the session. The one set decides the quorum, who is
+     * reminded before the end and whose memberships list the session.
+     */
+    public void expectVoters(Session session, Collection<String> voterKeys) {
+        voteService.expectVoters(session, voterKeys);
+        if (voterKeys.isEmpty()) {
+            reminderService.cancel(session.getIssueKey());
+        } else {
+            reminderService.expect(session);
+        }
+    }
+
+    /**
+     * @return the session, the same instance for all callers within one request
+     */
+    public Session get(final String issueKey) {
+        return requestContext.get("session", issueKey, new PokerRequestContext.Loader<Session>() {
+            @Override
+            public Session load() {
+                return load(issueKey);
+            }
+        });
+    }
+
+    /**
+     * @return the session if the current user can browse its issue, null otherwise
+     */
+    public Session getVisible(String issueKey) {
+        Session session = get(issueKey);
+        return session == null || session.getIssue() == null ? null : session;
+    }
+
+    /**
+     * Reads the session without keeping it for the rest of the request, for reads over many sessions.
+     */
+    public Session load(String issueKey) {
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.LOAD);
+        try {
+            return read(issueKey);
+        } finally {
+            split.stop();
+        }
+    }
+
+    private Session read(String issueKey) {
         log.info("Get session by issue key: " + issueKey);
         if (issueKey == null) {
             log.warn("Issue key is null");
             return null;
         }
 
-        IssueService.IssueResult issueResult = issueService.getIssue(authContext.getUser(), issueKey);
-        if (!issueResult.isValid() || issueResult.getIssue() == null) {
-            log.warn("Could not retrieve issue: " + issueKey + " - " +
-                     (issueResult.getErrorCollection().hasAnyErrors() ?
-                      issueResult.getErrorCollection().toString() : "Issue is null"));
-            return null;
-        }
-
-        Issue issue = issueResult.getIssue();
-        Properties sessionProps = (Properties) pluginSettings.get(getIssueStoreKey(issue));
+        Properties sessionProps = recordStore.get(getIssueStoreKey(issueKey));
         if (sessionProps == null) {
             return null;
         }
 
         Session session = new Session();
+        session.setVersion(VersionedRecordStore.getVersion(sessionProps));
         session.setCreated(new Date(Long.parseLong(sessionProps.getProperty("created"))));
         session.setStart(new Date(Long.parseLong(sessionProps.getProperty("start"))));
         session.setEnd(new Date(Long.parseLong(sessionProps.getProperty("end"))));
-        session.setIssue(issue);
-        session.setAuthor(userManager.getUserByKey(sessionProps.getProperty("authorKey")));
+        session.setIssueKey(issueKey, issueResolver);
+        session.setAuthorKey(sessionProps.getProperty("authorKey"), authorResolver);
+        String deckVersion = sessionProps.getProperty("deckVersion");
+        if (deckVersion != null) {
+            session.setDeckVersion(Long.parseLong(deckVersion));
+        }
+        String roundId = sessionProps.getProperty("roundId");
+        if (roundId != null) {
+            session.setRoundId(Long.parseLong(roundId));
+        }
+        String appliedEstimate = sessionProps.getProperty("estimate");
+        if (appliedEstimate != null) {
+            session.setAppliedEstimate(Double.parseDouble(appliedEstimate));
+        }
+        session.setAnalyticsRecorded(Boolean.parseBoolean(sessionProps.getProperty("analytics")));
 
         return session;
     }
 
+    /**
+     * @return all sessions, including the ones of issues the current user cannot browse
+     */
     public List<Session> getAll() {
         return this.getAll(0, Integer.MAX_VALUE);
     }
@@ -117,6 +266,14 @@ public class SessionService extends AbstractPokerService {
         return sessions;
     }
 
+    /**
+     * @return issue keys of all sessions, oldest first
+     */
+    public List<String> getSessionKeys() {
+        List<String> allSessionKeys = (List<String>) pluginSettings.get(getKey() + ".all");
+        return allSessionKeys == null ? new ArrayList<String>() : allSessionKeys;
+    }
+
     public Integer count() {
         List<String> allSessionKeys = (List<String>) pluginSettings.get(getKey() + ".all");
 
@@ -126,33 +283,114 @@ public class SessionService extends AbstractPokerService {
         return allSessionKeys.size();
     }
 
-    public void update(Session session) {
-        String storeKey = getIssueStoreKey(session.getIssue());
-        Properties sessionProps = (Properties) pluginSettings.get(storeKey);
-        sessionProps.setProperty("start", Long.toString(session.getStart().getTime()));
-        sessionProps.setProperty("end", Long.toString(session.getEnd().getTime()));
+    /**
+     * Writes the mutable fields of the session. Concurrent updates from other nodes are retried on
+     * top of each other, so changes of different fields (e.g. end and estimate) are all kept.
+     *
+     * @throws com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException if the session
+     * kept changing while being updated
+     */
+    public void update(final Session session) {
+        // values the write replaced, for the history
+        final String[] previous = new String[2];
+        Properties written = recordStore.update(getIssueStoreKey(session.getIssueKey()), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties sessionProps) {
+                if (sessionProps.isEmpty()) {
+                    log.warn("Session " + session.getIssueKey() + " was deleted, not updating it");
+                    return false;
+                }
+                previous[0] = sessionProps.getProperty("end");
+                previous[1] = sessionProps.getProperty("estimate");
+                sessionProps.setProperty("start", Long.toString(session.getStart().getTime()));
+                sessionProps.setProperty("end", Long.toString(session.getEnd().getTime()));
+                if (session.getAppliedEstimate() != null) {
+                    sessionProps.setProperty("estimate", Double.toString(session.getAppliedEstimate()));
+                }
+                if (session.isAnalyticsRecorded()) {
+                    sessionProps.setProperty("analytics", "true");
+                }
+                return true;
+            }
+        });
+        if (written == null) {
+            return;
+        }
+        session.setVersion(VersionedRecordStore.getVersion(written));
+        appendChanges(session, previous[0], previous[1], written);
+        if (!written.getProperty("end").equals(previous[0])) {
+            sessionIndex.update(session.getIssueKey(), session.getStart().getTime(),
+                    session.getEnd().getTime());
+            reminderService.reschedule(session.getIssueKey(), session.getStart().getTime(),
+                    session.getEnd().getTime());
+            fireEndChanged(session);
+        }
 
-        pluginSettings.put(storeKey, sessionProps);
+        issuePropertyPublisher.publish(session, voteService.getVoteValsBySession(session).size());
+    }
+
+    /**
+     * Marks the analytics of the session as recorded, a compare-and-set so that one node records them.
+     *
+     * @return true if this call marked them, false if they were marked before or the session was deleted
+     */
+    public boolean claimAnalytics(Session session) {
+        final boolean[] claimed = new boolean[1];
+        recordStore.update(getIssueStoreKey(session.getIssueKey()), new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties sessionProps) {
+                claimed[0] = !sessionProps.isEmpty() && !Boolean.parseBoolean(sessionProps.getProperty("analytics"));
+                if (claimed[0]) {
+                    sessionProps.setProperty("analytics", "true");
+                }
+                return claimed[0];
+            }
+        });
+        if (claimed[0]) {
+            session.setAnalyticsRecorded(true);
+        }
+        return claimed[0];
+    }
+
+    private void fireEndChanged(Session session) {
+        EndListener listener = endListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.endChanged(session.getIssueKey(), session.getEnd().getTime());
+        } catch (RuntimeException e) {
+            log.error("Failed to handle the end of session " + session.getIssueKey(), e);
+        }
+    }
+
+    private void appendChanges(Session session, String previousEnd, String previousEstimate, Properties written) {
+        String issueKey = session.getIssueKey();
+        String userKey = authContext.isLoggedInUser() ? authContext.getLoggedInUser().getKey() : null;
+        String end = written.getProperty("end");
+        if (!end.equals(previousEnd)) {
+            SessionEvent.Type type = Long.parseLong(end) <= System.currentTimeMillis()
+                    ? SessionEvent.Type.ENDED : SessionEvent.Type.EXTENDED;
+            eventLog.append(issueKey, type, userKey, end, null);
+        }
+        String estimate = written.getProperty("estimate");
+        if (estimate != null && !estimate.equals(previousEstimate)) {
+            eventLog.append(issueKey, SessionEvent.Type.ESTIMATE_APPLIED, userKey, estimate, null);
+        }
     }
 
     public void delete(Session session) {
-        String storeKey = getIssueStoreKey(session.getIssue());
-        pluginSettings.remove(storeKey);
+        recordStore.remove(getIssueStoreKey(session.getIssueKey()));
+        requestContext.put("session", session.getIssueKey(), null);
 
         List<String> allSessions = (List<String>) pluginSettings.get(getKey() + ".all");
         if (allSessions != null) {
-            allSessions.remove(session.getIssue().getKey());
+            allSessions.remove(session.getIssueKey());
             pluginSettings.put(getKey() + ".all", allSessions);
         }
-    }
+        sessionIndex.remove(session.getIssueKey());
+        reminderService.cancel(session.getIssueKey());
 
-    public Status getStatus(Session session) {
-        if (System.currentTimeMillis() < session.getStart().getTime()) {
-            return Status.SCHEDULED;
-        } else if (System.currentTimeMillis() < session.getEnd().getTime()) {
-            return Status.IN_PROGRESS;
-        } else {
-            return Status.FINISHED;
-        }
+        issuePropertyPublisher.remove(session);
     }
 }
@@ -0,0 +1,219 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the votes of all sessions from the old per-voter keys into ballot records in the
+ * background. It works through a snapshot of the session list taken when the run starts, in small
+ * batches with a pause in between, and stores its position in the snapshot after every batch, so a
+ * restart continues where it stopped. Sessions created meanwhile already have ballots. Reads fall
+ * back to the old keys for sessions that were not migrated yet.
+ * <p>
+ * Every node of a cluster runs its own migrator, migrating a session twice does no harm.
+ */
+@SuppressWarnings("unchecked")
+public class StorageMigrator extends AbstractPokerService implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(StorageMigrator.class);
+
+    private static final int BATCH_SIZE = 50;
+    private static final long BATCH_PAUSE_MILLIS = 1000;
+    // let Jira finish starting up before the first batch
+    private static final long START_DELAY_MILLIS = 60 * 1000L;
+
+    private final PluginSettings pluginSettings;
+    private final VoteService voteService;
+    private final String key;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "planning-poker-migration");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // progress of the current run
+    private volatile boolean running;
+    private volatile long startedAt;
+    private volatile int processed;
+    private volatile int migrated;
+    private volatile int failed;
+    private volatile String lastError;
+
+    public StorageMigrator(PluginSettingsFactory pluginSettingsFactory, VoteService voteService) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
+        this.voteService = voteService;
+        this.key = getKey() + ".migration";
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!isDone()) {
+            start(START_DELAY_MILLIS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        running = false;
+    }
+
+    /**
+     * Starts the migration over from the first session.
+     */
+    public synchronized void restart() {
+        pluginSettings.remove(key + ".done");
+        pluginSettings.remove(key + ".keys");
+        pluginSettings.put(key + ".position", "0");
+        if (!running) {
+            start(0);
+        }
+    }
+
+    public boolean isDone() {
+        return pluginSettings.get(key + ".done") != null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPosition() {
+        String position = (String) pluginSettings.get(key + ".position");
+        return position == null ? 0 : Integer.parseInt(position);
+    }
+
+    public int getTotal() {
+        List<String> sessionKeys = (List<String>) pluginSettings.get(key + ".keys");
+        if (sessionKeys == null) {
+            sessionKeys = (List<String>) pluginSettings.get(getKey() + ".all");
+        }
+        return sessionKeys == null ? 0 : sessionKeys.size();
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public int getMigrated() {
+        return migrated;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return sessions processed per second in the current run, including the pauses
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        if (startedAt == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return processed * 1000.0 / elapsed;
+    }
+
+    private synchronized void start(long delayMillis) {
+        running = true;
+        startedAt = System.currentTimeMillis() + delayMillis;
+        processed = 0;
+        migrated = 0;
+        failed = 0;
+        lastError = null;
+        schedule(delayMillis);
+    }
+
+    private void schedule(long delayMillis) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runBatch();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runBatch() {
+        boolean more = false;
+        try {
+            more = migrateBatch();
+        } catch (RuntimeException e) {
+            lastError = e.getMessage();
+            log.error("Planning poker storage migration stopped, it can be run again", e);
+        } finally {
+            if (more) {
+                schedule(BATCH_PAUSE_MILLIS);
+            } else {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * @return true if sessions are left for another batch
+     */
+    private boolean migrateBatch() {
+        List<String> sessionKeys = getSnapshot();
+        int position = getPosition();
+        int end = Math.min(position + BATCH_SIZE, sessionKeys.size());
+
+        for (int i = position; i < end && !executor.isShutdown(); i++) {
+            String issueKey = sessionKeys.get(i);
+            try {
+                if (voteService.migrateLegacyVotes(issueKey)) {
+                    migrated++;
+                }
+            } catch (RuntimeException e) {
+                failed++;
+                lastError = issueKey + ": " + e.getMessage();
+                log.error("Failed to migrate votes of session " + issueKey + ", it stays readable in the old layout", e);
+            }
+            processed++;
+        }
+        pluginSettings.put(key + ".position", Integer.toString(end));
+
+        if (end < sessionKeys.size()) {
+            return true;
+        }
+        pluginSettings.put(key + ".done", Long.toString(System.currentTimeMillis()));
+        pluginSettings.remove(key + ".keys");
+        log.info("Planning poker storage migration finished, " + migrated + " of " + processed +
+                " sessions migrated, " + failed + " failed");
+        return false;
+    }
+
+    /**
+     * @return session keys of the current run, the session list itself changes as sessions are saved
+     */
+    private List<String> getSnapshot() {
+        List<String> sessionKeys = (List<String>) pluginSettings.get(key + ".keys");
+        if (sessionKeys == null) {
+            List<String> allSessions = (List<String>) pluginSettings.get(getKey() + ".all");
+            sessionKeys = allSessions == null ? new ArrayList<String>() : new ArrayList<String>(allSessions);
+            pluginSettings.put(key + ".keys", sessionKeys);
+            // a position saved without a snapshot points into a list that may have shifted since
+            pluginSettings.put(key + ".position", "0");
+        }
+        return sessionKeys;
+    }
+}
@@ -0,0 +1,44 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+/**
+ * Plugin settings that charge their reads and writes to the storage phase of the current request.
+ */
+public class TimedPluginSettings implements PluginSettings {
+    private final PluginSettings delegate;
+
+    public TimedPluginSettings(PluginSettings delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Object get(String key) {
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.STORAGE);
+        try {
+            return delegate.get(key);
+        } finally {
+            split.stop();
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.STORAGE);
+        try {
+            return delegate.put(key, value);
+        } finally {
+            split.stop();
+        }
+    }
+
+    @Override
+    public Object remove(String key) {
+        RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.STORAGE);
+        try {
+            return delegate.remove(key);
+        } finally {
+            split.stop();
+        }
+    }
+}
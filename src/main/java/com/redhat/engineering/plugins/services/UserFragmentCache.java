@@ -0,0 +1,93 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserEditedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendered user fragments (avatar, full name and hover card link) shared by all voter lists and
+ * viewers. The markup does not depend on the viewer, the hover card itself is loaded by the browser
+ * with the viewer's permissions. Fragments are keyed by user name, user, format and element id, so
+ * a hit skips the avatar lookup too; edited and deleted users, e.g. with a new display name or
+ * avatar, are evicted by their user name when their event arrives.
+ */
+public class UserFragmentCache implements InitializingBean, DisposableBean {
+    public static final String DEF_FORMAT = "avatarFullNameHover";
+    private static final String SEPARATOR = "\n";
+
+    private final PokerRequestContext requestContext;
+    private final EventPublisher eventPublisher;
+    private final Cache<String, String> fragments = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    public UserFragmentCache(PokerRequestContext requestContext, EventPublisher eventPublisher) {
+        this.requestContext = requestContext;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+    /**
+     * @param id id of the rendered element, part of the fragment
+     */
+    public String getUserHtml(ApplicationUser user, String format, String id) {
+        String cacheKey = getPrefix(user.getName()) + user.getKey() + SEPARATOR + format + SEPARATOR + id;
+        String html = fragments.getIfPresent(cacheKey);
+        if (html == null) {
+            RequestTimer.Split split = RequestTimer.start(RequestTimer.Phase.RENDER);
+            try {
+                Map<String, Object> params = Maps.newHashMap();
+                params.put("avatarURL", requestContext.getAvatarUrl(user));
+                html = requestContext.getUserFormatter(format).formatUserkey(user.getKey(), id, params);
+            } finally {
+                split.stop();
+            }
+            fragments.put(cacheKey, html);
+        }
+        return html;
+    }
+
+    @EventListener
+    public void onUserEdited(UserEditedEvent event) {
+        evict(event.getUser().getName());
+    }
+
+    @EventListener
+    public void onUserDeleted(UserDeletedEvent event) {
+        evict(event.getUsername());
+    }
+
+    private void evict(String userName) {
+        String prefix = getPrefix(userName);
+        for (String cacheKey : fragments.asMap().keySet()) {
+            if (cacheKey.startsWith(prefix)) {
+                fragments.invalidate(cacheKey);
+            }
+        }
+    }
+
+    private static String getPrefix(String userName) {
+        return userName.toLowerCase(Locale.ENGLISH) + SEPARATOR;
+    }
+}
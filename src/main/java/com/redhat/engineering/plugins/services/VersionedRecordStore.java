@@ -0,0 +1,221 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Properties records with a version that is increased on every write. PluginSettings have no
+ * atomic compare-and-set, so an update reads the record, applies the change, writes it only if
+ * the version is still the one it read and then reads it back to check that its own write won.
+ * Lost races are retried on top of the winning write, a few times at most.
+ * <p>
+ * Writers on one node are serialized per key, so the check only has to catch writers on other
+ * nodes. It narrows the window for lost updates to the time between the last check and the write,
+ * it does not close it.
+ * <p>
+ * Reads are served from a cache. Every write announces the new version on the invalidation bus,
+ * so other nodes drop their older copy of that record only. A read that loaded a record before such
+ * a write does not cache its copy.
+ */
+public class VersionedRecordStore {
+    private static final Logger log = LoggerFactory.getLogger(VersionedRecordStore.class);
+
+    public static final String VERSION = "version";
+    static final String WRITER = "writer";
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 10;
+    // Cached in place of records that do not exist
+    private static final Properties MISSING = new Properties();
+    // Records stored as properties
+    private static final Codec PROPERTIES = new Codec() {
+        @Override
+        public Object encode(Properties record) {
+            return record;
+        }
+
+        @Override
+        public Properties decode(Object stored) {
+            return (Properties) stored;
+        }
+    };
+
+    private final PluginSettings pluginSettings;
+    private final InvalidationBus invalidationBus;
+    private final String region;
+    private final Codec codec;
+    private final Striped<Lock> locks = Striped.lock(64);
+    private final Cache<String, Properties> cache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            // bounds how long a read that raced with a remote write can stay stale
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+    // Last version announced per record, only needs to outlive the loads that raced with the write
+    private final Cache<String, Long> announced = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * @param region name of the records on the invalidation bus, must not contain ':'
+     */
+    public VersionedRecordStore(PluginSettings pluginSettings, InvalidationBus invalidationBus, String region) {
+        this(pluginSettings, invalidationBus, region, PROPERTIES);
+    }
+
+    /**
+     * @param region name of the records on the invalidation bus, must not contain ':'
+     * @param codec stored form of the records
+     */
+    public VersionedRecordStore(PluginSettings pluginSettings, InvalidationBus invalidationBus, String region,
+                                Codec codec) {
+        this.pluginSettings = pluginSettings;
+        this.invalidationBus = invalidationBus;
+        this.region = region;
+        this.codec = codec;
+        invalidationBus.subscribe(region, new InvalidationBus.Listener() {
+            @Override
+            public void invalidated(String key, long version) {
+                evict(key, version);
+            }
+        });
+    }
+
+    /**
+     * Change applied to the current content of a record.
+     */
+    public interface Mutation {
+        /**
+         * @param record current record, empty if it does not exist yet
+         * @return false to leave the record as it is
+         */
+        boolean apply(Properties record);
+    }
+
+    /**
+     * Converts records to the value kept in PluginSettings and back.
+     */
+    public interface Codec {
+        Object encode(Properties record);
+
+        /**
+         * @return the record, null if the stored value is null
+         */
+        Properties decode(Object stored);
+    }
+
+    /**
+     * @return the record, shared with the cache, so it must not be modified. Null if it does not exist.
+     */
+    public Properties get(String storeKey) {
+        Properties record = cache.getIfPresent(storeKey);
+        if (record == null) {
+            Properties loaded = load(storeKey);
+            record = loaded == null ? MISSING : loaded;
+            Properties cached = cache.asMap().putIfAbsent(storeKey, record);
+            if (cached != null) {
+                // put by a write on this node in the meantime
+                record = cached;
+            } else {
+                Long version = announced.getIfPresent(storeKey);
+                if (version != null && getVersion(loaded) < version) {
+                    // a write announced while loading, the copy may be older than it
+                    cache.asMap().remove(storeKey, record);
+                }
+            }
+        }
+        return record == MISSING ? null : record;
+    }
+
+    public static long getVersion(Properties record) {
+        if (record == null) {
+            return 0;
+        }
+        String version = record.getProperty(VERSION);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * @return the written record, or the current one if the mutation left it unchanged
+     * @throws ConcurrentUpdateException if the record kept changing for all attempts
+     */
+    public Properties update(String storeKey, Mutation mutation) {
+        Lock lock = locks.get(storeKey);
+        lock.lock();
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                Properties current = load(storeKey);
+                long version = getVersion(current);
+
+                Properties record = new Properties();
+                if (current != null) {
+                    record.putAll(current);
+                }
+                if (!mutation.apply(record)) {
+                    return current;
+                }
+
+                String writer = UUID.randomUUID().toString();
+                record.setProperty(VERSION, Long.toString(version + 1));
+                record.setProperty(WRITER, writer);
+
+                if (getVersion(load(storeKey)) == version) {
+                    pluginSettings.put(storeKey, codec.encode(record));
+                    Properties written = load(storeKey);
+                    if (written != null && writer.equals(written.getProperty(WRITER))) {
+                        cache.put(storeKey, written);
+                        invalidationBus.publish(region, storeKey, version + 1);
+                        return written;
+                    }
+                }
+
+                log.debug("Concurrent update of " + storeKey + " at version " + version + ", attempt " + attempt);
+                backOff(attempt);
+            }
+        } finally {
+            lock.unlock();
+        }
+        throw new ConcurrentUpdateException(storeKey, MAX_ATTEMPTS);
+    }
+
+    public void remove(String storeKey) {
+        pluginSettings.remove(storeKey);
+        invalidationBus.publish(region, storeKey, InvalidationBus.REMOVED);
+    }
+
+    private Properties load(String storeKey) {
+        return codec.decode(pluginSettings.get(storeKey));
+    }
+
+    private void evict(String storeKey, long version) {
+        if (InvalidationBus.ALL.equals(storeKey)) {
+            cache.invalidateAll();
+            return;
+        }
+        Long previous = announced.getIfPresent(storeKey);
+        if (previous == null || previous < version) {
+            announced.put(storeKey, version);
+        }
+        Properties cached = cache.getIfPresent(storeKey);
+        if (cached != null && (cached == MISSING || getVersion(cached) < version)) {
+            cache.invalidate(storeKey);
+        }
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(BACKOFF_MILLIS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
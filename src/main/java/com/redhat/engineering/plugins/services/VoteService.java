@@ -6,77 +6,445 @@ import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.user.util.UserManager;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.redhat.engineering.plugins.domain.Deck;
+import com.redhat.engineering.plugins.domain.Resolver;
 import com.redhat.engineering.plugins.domain.Session;
+import com.redhat.engineering.plugins.domain.SessionEvent;
 import com.redhat.engineering.plugins.domain.Vote;
+import com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException;
+import com.redhat.engineering.plugins.exceptions.InvalidVoteException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 /**
+ * Votes of sessions with a deck version are stored as ordinals into that deck, votes of older
+ * sessions are stored as plain values.
+ * <p>
+ * A vote is an append to the {@link SessionEventLog} of the session. The ballot record is a
+ * snapshot of the votes up to an event of the log ({@code logGeneration}, {@code logSeq}) with the
+ * entries {@code n.<userKey>} (order of the voter), {@code v.<userKey>} (vote) and
+ * {@code c.<userKey>} (comment). The current votes are the snapshot with the events after it
+ * replayed, built once per request. Once the tail grows to {@link #SNAPSHOT_INTERVAL} events it is
+ * folded into the snapshot with a compare-and-set, so reads only replay a short tail. Sessions
+ * voted on before the ballot was introduced are moved from the old per-voter keys into the ballot
+ * by their next vote.
+ * <p>
+ * A session can declare its expected voters ({@code x.<userKey>}), the one set that also decides
+ * who is reminded and whose memberships list the session. The ballot then keeps the
+ * counters {@code expected} and {@code voted}, a replayed first vote of an expected voter
+ * increments the latter, and the {@link QuorumListener} is told once when the last expected voter
+ * votes. The quorum is claimed with a compare-and-set of the ballot, so one node tells it.
+ *
  * @author vdedik@redhat.com
  */
 @SuppressWarnings("unchecked")
 public class VoteService extends AbstractPokerService {
     private static final Logger log = LoggerFactory.getLogger(SessionService.class);
 
+    // events replayed on top of the snapshot before they are folded into it
+    private static final int SNAPSHOT_INTERVAL = 20;
+    // a missing event this far behind the head belongs to an append that failed, not to one still writing
+    private static final int MAX_GAP_EVENTS = 2 * SNAPSHOT_INTERVAL;
+
     private final PluginSettings pluginSettings;
     private final IssueService issueService;
     private final JiraAuthenticationContext authContext;
     private final UserManager userManager;
+    private final ConfigService configService;
+    private final IssuePropertyPublisher issuePropertyPublisher;
+    private final VersionedRecordStore recordStore;
+    private final PokerRequestContext requestContext;
+    private final SessionEventLog eventLog;
+    private final SessionIndex sessionIndex;
+    private volatile QuorumListener quorumListener;
+    private final Resolver<ApplicationUser> voterResolver = new Resolver<ApplicationUser>() {
+        @Override
+        public ApplicationUser resolve(String userKey) {
+            return requestContext.getUserByKey(userKey);
+        }
+    };
+
+    /**
+     * Told when all expected voters of a session have voted.
+     */
+    public interface QuorumListener {
+        void reached(Session session);
+    }
 
     public VoteService(PluginSettingsFactory pluginSettingsFactory, IssueService issueService,
-                          JiraAuthenticationContext authContext, UserManager userManager) {
-        this.pluginSettings = pluginSettingsFactory.createGlobalSettings();
+                          JiraAuthenticationContext authContext, UserManager userManager,
+                          ConfigService configService, IssuePropertyPublisher issuePropertyPublisher,
+                          InvalidationBus invalidationBus, PokerRequestContext requestContext,
+                          SessionEventLog eventLog, SessionIndex sessionIndex) {
+        this.pluginSettings = new TimedPluginSettings(pluginSettingsFactory.createGlobalSettings());
         this.issueService = issueService;
         this.authContext = authContext;
         this.userManager = userManager;
+        this.configService = configService;
+        this.issuePropertyPublisher = issuePropertyPublisher;
+        this.requestContext = requestContext;
+        this.eventLog = eventLog;
+        this.sessionIndex = sessionIndex;
+        this.recordStore = new VersionedRecordStore(pluginSettings, invalidationBus, "ballot", new BallotRecordCodec());
+    }
+
+    public void setQuorumListener(QuorumListener quorumListener) {
+        this.quorumListener = quorumListener;
+    }
+
+    /**
+     * Writes the votes, one log append per vote, for voters going through many sessions at once.
+     *
+     * @return error message per issue key for votes that could not be written
+     */
+    public Map<String, String> saveAll(List<Vote> votes) {
+        Map<String, String> errors = new LinkedHashMap<String, String>();
+        for (Vote vote : votes) {
+            String issueKey = vote.getSession().getIssueKey();
+            try {
+                save(vote);
+            } catch (InvalidVoteException e) {
+                errors.put(issueKey, e.getMessage());
+            } catch (ConcurrentUpdateException e) {
+                log.warn("Vote of " + vote.getVoterKey() + " in " + issueKey + " could not be written", e);
+                errors.put(issueKey, "The session is busy, please vote again.");
+            } catch (RuntimeException e) {
+                // the other votes of the batch are still written, the result tells which ones failed
+                log.error("Vote of " + vote.getVoterKey() + " in " + issueKey + " could not be written", e);
+                errors.put(issueKey, "The vote could not be saved, please vote again.");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Replaces the users expected to vote in the session, the session ends once all of them voted.
+     * Users no longer expected lose the session from their memberships unless they voted.
+     */
+    public void expectVoters(final Session session, final Collection<String> voterKeys) {
+        final String issueKey = session.getIssueKey();
+        final String issueStoreKey = getIssueStoreKey(issueKey);
+        final long generation = eventLog.getPosition(issueKey).getGeneration();
+        final List<String> removed = new ArrayList<String>();
+        recordStore.update(issueStoreKey + ".ballot", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties ballot) {
+                removed.clear();
+                if (VersionedRecordStore.getVersion(ballot) == 0) {
+                    if (voterKeys.isEmpty()) {
+                        return false;
+                    }
+                    ballot.putAll(readLegacyBallot(issueStoreKey));
+                }
+                if (toGeneration(ballot, generation) < 0) {
+                    return false;
+                }
+                for (String name : ballot.stringPropertyNames()) {
+                    if (name.startsWith("x.") && !voterKeys.contains(name.substring(2))) {
+                        ballot.remove(name);
+                        removed.add(name.substring(2));
+                    }
+                }
+                for (String voterKey : voterKeys) {
+                    ballot.setProperty("x." + voterKey, "1");
+                }
+                if (voterKeys.isEmpty()) {
+                    ballot.remove("expected");
+                    ballot.remove("voted");
+                    return true;
+                }
+                // counted once here over the snapshot, replayed votes only increment the counter afterwards
+                int expected = 0;
+                int voted = 0;
+                for (String name : ballot.stringPropertyNames()) {
+                    if (name.startsWith("x.")) {
+                        expected++;
+                        if (ballot.getProperty("n." + name.substring(2)) != null) {
+                            voted++;
+                        }
+                    }
+                }
+                ballot.setProperty("expected", Integer.toString(expected));
+                ballot.setProperty("voted", Integer.toString(voted));
+                return true;
+            }
+        });
+        sessionIndex.uninvite(issueKey, removed);
+        sessionIndex.invite(issueKey, voterKeys);
+        checkQuorum(session, refresh(issueKey));
+    }
+
+    /**
+     * @return user keys of the users expected to vote in the session of the issue
+     */
+    public List<String> getExpectedVoterKeys(String issueKey) {
+        List<String> voterKeys = new ArrayList<String>();
+        for (String name : getBallot(issueKey).stringPropertyNames()) {
+            if (name.startsWith("x.")) {
+                voterKeys.add(name.substring(2));
+            }
+        }
+        return voterKeys;
     }
 
+    /**
+     * @return votes of expected voters and number of expected voters, null if the session has none
+     */
+    public int[] getQuorum(Session session) {
+        Properties ballot = getBallot(session.getIssueKey());
+        if (ballot.getProperty("expected") == null) {
+            return null;
+        }
+        return new int[]{Integer.parseInt(ballot.getProperty("voted")), Integer.parseInt(ballot.getProperty("expected"))};
+    }
+
+    /**
+     * @throws InvalidVoteException if the value is not a card of the session deck
+     * @throws com.redhat.engineering.plugins.exceptions.ConcurrentUpdateException if the log of the
+     * session kept changing while the vote was appended
+     */
     public void save(Vote vote) {
-        String issueStoreKey = getIssueStoreKey(vote.getSession().getIssue());
+        Session session = vote.getSession();
+        Deck deck = getDeck(session);
+        int ordinal = deck.getOrdinal(vote.getValue());
+        if (ordinal < 0) {
+            throw new InvalidVoteException(vote.getValue());
+        }
+        vote.setOrdinal(ordinal);
+        String storedValue = encode(session, vote.getValue(), ordinal);
+        String voterKey = vote.getVoterKey();
+        String issueKey = session.getIssueKey();
 
-        List<String> voters = getList(issueStoreKey + ".voters");
-        if (!voters.contains(vote.getVoter().getKey())) {
-            voters.add(vote.getVoter().getKey());
-            pluginSettings.put(issueStoreKey + ".voters", voters);
+        // the log is replayed on top of the ballot, votes in the old keys have to be in it first
+        migrateLegacyVotes(issueKey);
+        boolean newVoter = getBallot(issueKey).getProperty("n." + voterKey) == null;
+        eventLog.append(issueKey, newVoter ? SessionEvent.Type.VOTE_CAST : SessionEvent.Type.VOTE_CHANGED,
+                voterKey, storedValue, vote.getComment());
+        Properties ballot = refresh(issueKey);
+        if (Long.parseLong(ballot.getProperty("tail", "0")) >= SNAPSHOT_INTERVAL) {
+            compact(issueKey);
+        }
+
+        if (newVoter) {
+            sessionIndex.voted(issueKey, voterKey);
+            issuePropertyPublisher.publish(session, getVoterKeys(ballot).size());
+        }
+        checkQuorum(session, ballot);
+    }
+
+    /**
+     * Folds the events after the snapshot into it, up to the first event that may still be written.
+     */
+    private void compact(final String issueKey) {
+        final String issueStoreKey = getIssueStoreKey(issueKey);
+        final SessionEventLog.Position head = eventLog.getPosition(issueKey);
+        try {
+            recordStore.update(issueStoreKey + ".ballot", new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties ballot) {
+                    if (VersionedRecordStore.getVersion(ballot) == 0) {
+                        ballot.putAll(readLegacyBallot(issueStoreKey));
+                    }
+                    long snapshotSeq = toGeneration(ballot, head.getGeneration());
+                    if (snapshotSeq < 0) {
+                        return false;
+                    }
+                    long folded = snapshotSeq;
+                    for (SessionEvent event : eventLog.getEvents(issueKey, head.getGeneration(), snapshotSeq + 1,
+                            head.getSeq())) {
+                        if (event.getSeq() > folded + 1 && head.getSeq() - folded <= MAX_GAP_EVENTS) {
+                            // the missing events may still be written
+                            break;
+                        }
+                        replay(ballot, event);
+                        folded = event.getSeq();
+                    }
+                    if (folded == snapshotSeq) {
+                        return false;
+                    }
+                    ballot.setProperty("logSeq", Long.toString(folded));
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            // the votes are in the log, the next vote folds them
+            log.warn("Could not snapshot the votes of " + issueKey, e);
+        }
+    }
+
+    /**
+     * Tells the quorum listener if all expected voters voted and no node told it before.
+     */
+    private void checkQuorum(Session session, Properties ballot) {
+        if (!isQuorum(ballot) || ballot.getProperty("quorum") != null) {
+            return;
+        }
+        final String issueKey = session.getIssueKey();
+        final SessionEventLog.Position head = eventLog.getPosition(issueKey);
+        final boolean[] claimed = new boolean[1];
+        try {
+            recordStore.update(getIssueStoreKey(issueKey) + ".ballot", new VersionedRecordStore.Mutation() {
+                @Override
+                public boolean apply(Properties record) {
+                    claimed[0] = false;
+                    if (VersionedRecordStore.getVersion(record) == 0 || record.getProperty("quorum") != null) {
+                        return false;
+                    }
+                    Properties current = new Properties();
+                    current.putAll(record);
+                    replayTail(current, issueKey, head);
+                    if (!isQuorum(current)) {
+                        return false;
+                    }
+                    record.setProperty("quorum", Long.toString(System.currentTimeMillis()));
+                    claimed[0] = true;
+                    return true;
+                }
+            });
+        } catch (ConcurrentUpdateException e) {
+            log.warn("Could not claim the quorum of session " + issueKey + ", it ends at its end time", e);
         }
+        if (claimed[0]) {
+            refresh(issueKey);
+            fireQuorum(session);
+        }
+    }
 
-        String valueKey = issueStoreKey + "." + vote.getVoter().getKey();
-        String originalValue = (String) pluginSettings.get(valueKey);
-        pluginSettings.put(valueKey, vote.getValue());
+    private static boolean isQuorum(Properties ballot) {
+        String expected = ballot.getProperty("expected");
+        return expected != null && Integer.parseInt(expected) > 0
+                && Integer.parseInt(ballot.getProperty("voted")) >= Integer.parseInt(expected);
+    }
 
-        List<String> votes = getList(issueStoreKey + ".votes");
-        if (originalValue != null) {
-            votes.remove(originalValue);
+    private void fireQuorum(Session session) {
+        QuorumListener listener = quorumListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.reached(session);
+        } catch (RuntimeException e) {
+            log.error("Failed to close session " + session.getIssueKey() + " on quorum", e);
         }
-        votes.add(vote.getValue());
-        pluginSettings.put(issueStoreKey + ".votes", votes);
+    }
 
-        String commentKey = issueStoreKey + "." + vote.getVoter().getKey() + ".comment";
-        pluginSettings.put(commentKey, vote.getComment());
+    /**
+     * @return the deck the session is played with
+     */
+    public Deck getDeck(Session session) {
+        Deck deck = configService.getDeckByVersion(session.getDeckVersion());
+        if (deck == null) {
+            if (session.getDeckVersion() != null) {
+                log.warn("Deck version " + session.getDeckVersion() + " of session " +
+                        session.getIssueKey() + " not found, using the project deck");
+            }
+            // the issue key is enough, the issue can't be loaded on background threads without a user
+            deck = configService.getDeck(toProjectKey(session.getIssueKey()));
+        }
+        return deck;
     }
 
     public List<String> getVoteValsBySession(Session session) {
-        String storeKey = getIssueStoreKey(session.getIssue()) + ".votes";
-        return getList(storeKey);
+        Deck deck = getDeck(session);
+        List<String> storedVotes = getStoredVotes(getBallot(session.getIssueKey()));
+        List<String> result = new ArrayList<String>(storedVotes.size());
+        for (String storedVote : storedVotes) {
+            result.add(decode(session, deck, storedVote));
+        }
+        return result;
+    }
+
+    /**
+     * @return number of votes per card, indexed by the card ordinal in the session deck. Votes
+     * that are not part of the deck (possible only for sessions without a deck version) are left out.
+     */
+    public int[] getTally(Session session) {
+        Deck deck = getDeck(session);
+        int[] tally = new int[deck.size()];
+        for (String storedVote : getStoredVotes(getBallot(session.getIssueKey()))) {
+            int ordinal = toOrdinal(session, deck, storedVote);
+            if (ordinal >= 0) {
+                tally[ordinal]++;
+            }
+        }
+        return tally;
+    }
+
+    /**
+     * @return true if there is at least one vote and all votes are for the same card
+     */
+    public boolean isConsensus(int[] tally) {
+        int cards = 0;
+        for (int count : tally) {
+            if (count > 0) {
+                cards++;
+            }
+        }
+        return cards == 1;
+    }
+
+    /**
+     * @return min, max, average and count of the numeric votes and whether the voters reached
+     * consensus, or an empty map if there are no numeric votes
+     */
+    public Map<String, Object> getStats(Session session) {
+        Deck deck = getDeck(session);
+        int[] tally = getTally(session);
+
+        int count = 0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+
+        for (int ordinal = 0; ordinal < tally.length; ordinal++) {
+            Double v = deck.getNumericValue(ordinal);
+            if (tally[ordinal] == 0 || v == null) {
+                continue;
+            }
+            count += tally[ordinal];
+            sum += v * tally[ordinal];
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+
+        if (count == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("min", min);
+        stats.put("max", max);
+        stats.put("average", sum / count);
+        stats.put("count", count);
+        stats.put("consensus", isConsensus(tally));
+
+        return stats;
     }
 
     public List<Vote> getVotesBySession(Session session) {
-        String issueStoreKey = getIssueStoreKey(session.getIssue());
-        String votersKey = issueStoreKey + ".voters";
-        List<String> voters = getList(votersKey);
+        Deck deck = getDeck(session);
+        Properties ballot = getBallot(session.getIssueKey());
 
         List<Vote> votes = new ArrayList<Vote>();
-        for (String voterKey : voters) {
+        for (String voterKey : getVoterKeys(ballot)) {
             Vote vote = new Vote();
             vote.setSession(session);
-            vote.setVoter(userManager.getUserByKey(voterKey));
-            String voteVal = (String) pluginSettings.get(issueStoreKey + "." + voterKey);
-            vote.setValue(voteVal);
-            String comment = (String) pluginSettings.get(issueStoreKey + "." + voterKey + ".comment");
-            vote.setComment(comment);
+            vote.setVoterKey(voterKey, voterResolver);
+            String storedVote = ballot.getProperty("v." + voterKey);
+            vote.setValue(decode(session, deck, storedVote));
+            int ordinal = toOrdinal(session, deck, storedVote);
+            vote.setOrdinal(ordinal < 0 ? null : ordinal);
+            vote.setComment(ballot.getProperty("c." + voterKey));
             votes.add(vote);
         }
 
@@ -84,33 +452,254 @@ public class VoteService extends AbstractPokerService {
     }
 
     public List<ApplicationUser> getVotersBySession(Session session) {
-        String issueStoreKey = getIssueStoreKey(session.getIssue());
-        List<String> votersRaw = getList(issueStoreKey + ".voters");
         List<ApplicationUser> voters = new ArrayList<ApplicationUser>();
-
-        for (String voterRaw : votersRaw) {
-            ApplicationUser voter = userManager.getUserByKey(voterRaw);
+        for (String voterKey : getVoterKeys(getBallot(session.getIssueKey()))) {
+            ApplicationUser voter = requestContext.getUserByKey(voterKey);
             voters.add(voter);
         }
         return voters;
     }
 
+    /**
+     * @return user keys of everybody who voted on the session of the issue, without loading the issue
+     */
+    public List<String> getVoterKeys(String issueKey) {
+        return getVoterKeys(getBallot(issueKey));
+    }
+
     public boolean isVoter(Session session, ApplicationUser user) {
-        return getVoteVal(session, user) != null;
+        return getBallot(session.getIssueKey()).getProperty("v." + user.getKey()) != null;
     }
 
     public String getVoteVal(Session session, ApplicationUser user) {
-        return (String) pluginSettings.get(getIssueStoreKey(session.getIssue()) + "." + user.getKey());
+        String storedVote = getBallot(session.getIssueKey()).getProperty("v." + user.getKey());
+        return decode(session, getDeck(session), storedVote);
     }
 
     public String getVoteComment(Session session, ApplicationUser user) {
-        return (String) pluginSettings.get(getIssueStoreKey(session.getIssue()) + "." + user.getKey() + ".comment");
+        return getBallot(session.getIssueKey()).getProperty("c." + user.getKey());
     }
 
+    /**
+     * Moves the votes of the session from the old per-voter keys into its ballot record.
+     *
+     * @return true if the session had votes in the old layout
+     */
+    public boolean migrateLegacyVotes(String issueKey) {
+        final String issueStoreKey = getIssueStoreKey(issueKey);
+        if (pluginSettings.get(issueStoreKey + ".voters") == null) {
+            return false;
+        }
+
+        recordStore.update(issueStoreKey + ".ballot", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties ballot) {
+                // an existing ballot already took over the old votes on its first write
+                if (VersionedRecordStore.getVersion(ballot) > 0) {
+                    return false;
+                }
+                Properties legacyBallot = readLegacyBallot(issueStoreKey);
+                ballot.putAll(legacyBallot);
+                return !legacyBallot.isEmpty();
+            }
+        });
+        removeLegacyVotes(issueStoreKey);
+        return true;
+    }
+
+    /**
+     * Removes the votes of the session, called after a new generation of its log was started.
+     */
     public void removeAllVotes(Session session) {
-        String issueStoreKey = getIssueStoreKey(session.getIssue());
-        pluginSettings.remove(issueStoreKey + ".votes");
+        String issueKey = session.getIssueKey();
+        String issueStoreKey = getIssueStoreKey(issueKey);
+        removeLegacyVotes(issueStoreKey);
+        final long generation = eventLog.getPosition(issueKey).getGeneration();
+        // The ballot is cleared instead of removed, the version keeps counting so that stale writers still lose
+        recordStore.update(issueStoreKey + ".ballot", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties ballot) {
+                if (VersionedRecordStore.getVersion(ballot) == 0) {
+                    return false;
+                }
+                ballot.clear();
+                ballot.setProperty("logGeneration", Long.toString(generation));
+                ballot.setProperty("logSeq", "0");
+                return true;
+            }
+        });
+        refresh(issueKey);
+    }
+
+    /**
+     * @return the snapshot with the events after it replayed, the same instance for all callers
+     * within one request, so it must not be modified
+     */
+    private Properties getBallot(final String issueKey) {
+        return requestContext.get("ballot", issueKey, new PokerRequestContext.Loader<Properties>() {
+            @Override
+            public Properties load() {
+                return readBallot(issueKey);
+            }
+        });
+    }
+
+    /**
+     * Reads the ballot again after a write in this request.
+     */
+    private Properties refresh(String issueKey) {
+        Properties ballot = readBallot(issueKey);
+        requestContext.put("ballot", issueKey, ballot);
+        return ballot;
+    }
+
+    private Properties readBallot(String issueKey) {
+        String issueStoreKey = getIssueStoreKey(issueKey);
+        Properties snapshot = recordStore.get(issueStoreKey + ".ballot");
+        Properties ballot = new Properties();
+        ballot.putAll(snapshot != null ? snapshot : readLegacyBallot(issueStoreKey));
+        long tail = replayTail(ballot, issueKey, eventLog.getPosition(issueKey));
+        ballot.setProperty("tail", Long.toString(tail));
+        return ballot;
+    }
+
+    /**
+     * Replays the events of the log after the snapshot onto it.
+     *
+     * @return number of events after the snapshot
+     */
+    private long replayTail(Properties ballot, String issueKey, SessionEventLog.Position head) {
+        long snapshotSeq = toGeneration(ballot, head.getGeneration());
+        if (snapshotSeq < 0) {
+            // this node has not seen the new generation yet, the snapshot is newer than its head
+            return 0;
+        }
+        for (SessionEvent event : eventLog.getEvents(issueKey, head.getGeneration(), snapshotSeq + 1, head.getSeq())) {
+            replay(ballot, event);
+        }
+        return head.getSeq() - snapshotSeq;
+    }
+
+    /**
+     * Moves a snapshot of an earlier generation to the given one, dropping its votes.
+     *
+     * @return sequence number the snapshot is at, -1 if it is of a later generation
+     */
+    private static long toGeneration(Properties ballot, long generation) {
+        String snapshotGeneration = ballot.getProperty("logGeneration");
+        if (snapshotGeneration != null && Long.parseLong(snapshotGeneration) > generation) {
+            return -1;
+        }
+        if (snapshotGeneration == null || Long.parseLong(snapshotGeneration) < generation) {
+            if (snapshotGeneration != null) {
+                for (String name : ballot.stringPropertyNames()) {
+                    if (name.startsWith("n.") || name.startsWith("v.") || name.startsWith("c.")) {
+                        ballot.remove(name);
+                    }
+                }
+                ballot.remove("seq");
+                ballot.remove("quorum");
+                if (ballot.getProperty("voted") != null) {
+                    ballot.setProperty("voted", "0");
+                }
+            }
+            // a snapshot without generation was written before votes were logged, it holds the
+            // votes of the current session and the whole generation is replayed on top of it
+            ballot.setProperty("logGeneration", Long.toString(generation));
+            ballot.setProperty("logSeq", "0");
+        }
+        return Long.parseLong(ballot.getProperty("logSeq"));
+    }
+
+    private static void replay(Properties ballot, SessionEvent event) {
+        if (event.getType() != SessionEvent.Type.VOTE_CAST && event.getType() != SessionEvent.Type.VOTE_CHANGED) {
+            return;
+        }
+        String voterKey = event.getUserKey();
+        boolean newVoter = putVote(ballot, voterKey, event.getValue(), event.getComment());
+        if (newVoter && ballot.getProperty("x." + voterKey) != null && ballot.getProperty("voted") != null) {
+            ballot.setProperty("voted", Integer.toString(Integer.parseInt(ballot.getProperty("voted")) + 1));
+        }
+    }
+
+    /**
+     * @return true if the voter had no vote in the ballot yet
+     */
+    private static boolean putVote(Properties ballot, String voterKey, String storedValue, String comment) {
+        boolean newVoter = ballot.getProperty("n." + voterKey) == null;
+        if (newVoter) {
+            long seq = Long.parseLong(ballot.getProperty("seq", "0")) + 1;
+            ballot.setProperty("seq", Long.toString(seq));
+            ballot.setProperty("n." + voterKey, Long.toString(seq));
+        }
+        ballot.setProperty("v." + voterKey, storedValue);
+        if (comment != null) {
+            ballot.setProperty("c." + voterKey, comment);
+        } else {
+            ballot.remove("c." + voterKey);
+        }
+        return newVoter;
+    }
+
+    /**
+     * @return user keys of the voters in the order they first voted
+     */
+    private List<String> getVoterKeys(final Properties ballot) {
+        List<String> voterKeys = new ArrayList<String>();
+        for (String name : ballot.stringPropertyNames()) {
+            if (name.startsWith("n.")) {
+                voterKeys.add(name.substring(2));
+            }
+        }
+        Collections.sort(voterKeys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(Long.parseLong(ballot.getProperty("n." + a)),
+                        Long.parseLong(ballot.getProperty("n." + b)));
+            }
+        });
+        return voterKeys;
+    }
+
+    private List<String> getStoredVotes(Properties ballot) {
+        List<String> storedVotes = new ArrayList<String>();
+        for (String voterKey : getVoterKeys(ballot)) {
+            storedVotes.add(ballot.getProperty("v." + voterKey));
+        }
+        return storedVotes;
+    }
+
+    /**
+     * @return votes stored in the per-voter keys used before the ballot record, as ballot entries
+     */
+    private Properties readLegacyBallot(String issueStoreKey) {
+        Properties ballot = new Properties();
         List<String> voters = getList(issueStoreKey + ".voters");
+        long seq = 0;
+        for (String voterKey : voters) {
+            String storedVote = (String) pluginSettings.get(issueStoreKey + "." + voterKey);
+            if (storedVote == null) {
+                continue;
+            }
+            ballot.setProperty("n." + voterKey, Long.toString(++seq));
+            ballot.setProperty("v." + voterKey, storedVote);
+            String comment = (String) pluginSettings.get(issueStoreKey + "." + voterKey + ".comment");
+            if (comment != null) {
+                ballot.setProperty("c." + voterKey, comment);
+            }
+        }
+        if (seq > 0) {
+            ballot.setProperty("seq", Long.toString(seq));
+        }
+        return ballot;
+    }
+
+    private void removeLegacyVotes(String issueStoreKey) {
+        List<String> voters = (List<String>) pluginSettings.get(issueStoreKey + ".voters");
+        if (voters == null) {
+            return;
+        }
+        pluginSettings.remove(issueStoreKey + ".votes");
         for (String voter : voters) {
             pluginSettings.remove(issueStoreKey + "." + voter);
             pluginSettings.remove(issueStoreKey + "." + voter + ".comment");
@@ -118,6 +707,44 @@ public class VoteService extends AbstractPokerService {
         pluginSettings.remove(issueStoreKey + ".voters");
     }
 
+    /**
+     * @return card of a vote as stored in the ballot or the history of the session
+     */
+    public String decodeVote(Session session, String storedVote) {
+        return decode(session, getDeck(session), storedVote);
+    }
+
+    private String encode(Session session, String value, int ordinal) {
+        if (session.getDeckVersion() == null) {
+            return value;
+        }
+        return Integer.toString(ordinal);
+    }
+
+    private String decode(Session session, Deck deck, String storedVote) {
+        if (storedVote == null || session.getDeckVersion() == null) {
+            return storedVote;
+        }
+        int ordinal = toOrdinal(session, deck, storedVote);
+        return ordinal < 0 ? null : deck.getValue(ordinal);
+    }
+
+    private int toOrdinal(Session session, Deck deck, String storedVote) {
+        if (storedVote == null) {
+            return -1;
+        }
+        if (session.getDeckVersion() == null) {
+            return deck.getOrdinal(storedVote);
+        }
+        try {
+            int ordinal = Integer.parseInt(storedVote);
+            return ordinal < deck.size() ? ordinal : -1;
+        } catch (NumberFormatException e) {
+            log.warn("Invalid stored vote '" + storedVote + "' in session " + session.getIssueKey());
+            return -1;
+        }
+    }
+
     private <T> List<T> getList(String storeKey) {
         List<T> result = (List<T>) pluginSettings.get(storeKey);
         if (result == null) {
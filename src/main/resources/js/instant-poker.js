@@ -1,6 +1,66 @@
 (function() {
     'use strict';
 
+    function errorMessage(xhr) {
+        try {
+            return JSON.parse(xhr.responseText).message;
+        } catch (e) {
+            return xhr.responseText || 'Unknown error';
+        }
+    }
+
+    function statItem(label, value) {
+        return '<div class="stat-item">' +
+            '<span class="stat-label">' + label + ':</span> ' +
+            '<span class="stat-value">' + AJS.escapeHtml(String(value)) + '</span>' +
+            '</div>';
+    }
+
+    function applyButton(label, value) {
+        return '<button type="button" class="aui-button apply-estimate" data-value="' + AJS.escapeHtml(String(value)) + '">' +
+            'Apply ' + label + ' (' + AJS.escapeHtml(String(value)) + ')</button> ';
+    }
+
+    // Builds the same results section as vote/input.vm from the JSON returned by the session resource
+    function renderResults(results) {
+        var stats = results.stats || {};
+        var html = '<div id="results-section"><h3>Session Results</h3>';
+
+        if (stats.count) {
+            html += '<div class="instant-poker-stats">' +
+                statItem('Minimum', stats.min) +
+                statItem('Maximum', stats.max) +
+                statItem('Average', stats.average) +
+                statItem('Total Votes', stats.count);
+            if (stats.consensus) {
+                html += '<div class="stat-item"><span class="aui-lozenge aui-lozenge-success">Consensus</span></div>';
+            }
+            html += '</div>';
+
+            if (results.creator) {
+                html += '<h4>Apply Final Estimate</h4><div class="buttons-container">' +
+                    applyButton('Min', stats.min) +
+                    applyButton('Average', stats.average) +
+                    applyButton('Max', stats.max) +
+                    '</div>';
+            }
+        } else {
+            html += '<p>No votes cast yet.</p>';
+        }
+
+        if (results.votes && results.votes.length) {
+            html += '<table class="aui"><tbody>';
+            AJS.$.each(results.votes, function(i, vote) {
+                html += '<tr><td>' + AJS.escapeHtml(vote.voter || '') + '</td>' +
+                    '<td><span class="aui-badge">' + AJS.escapeHtml(vote.value || '') + '</span></td>' +
+                    '<td>' + AJS.escapeHtml(vote.comment || '') + '</td></tr>';
+            });
+            html += '</tbody></table>';
+        }
+
+        return html + '</div>';
+    }
+
     function initInstantPoker() {
         // Only run in instant mode
         var wrapper = AJS.$('#instant-vote-wrapper');
@@ -15,33 +75,37 @@
         // Only add AJAX handler if in instant mode
         if (!isInstant) return;
 
-        // Card click handler using event delegation
-        wrapper.on('click', '.card', function(e) {
-            e.preventDefault();
-            var $this = AJS.$(this);
-            var voteValue = $this.attr('data-value');
-
-            // Remove active from all cards
-            wrapper.find('.card').removeClass('active');
-            // Add active to clicked card
-            $this.addClass('active');
+        // Clicks within this quiet period replace each other, only the last card is posted
+        var VOTE_QUIET_MILLIS = 800;
+        var pendingVote = null;
+        var voteTimer = null;
 
-            // Submit vote via AJAX in instant mode
-            var comment = AJS.$('#voteComment').val() || '';
+        function voteData(vote) {
+            return {
+                key: vote.key,
+                voteVal: vote.value,
+                voteComment: vote.comment,
+                atl_token: AJS.$('meta[name="atlassian-token"]').attr('content')
+            };
+        }
 
-            // Read key dynamically from wrapper
-            var key = wrapper.attr('data-issue-key');
-            console.log('Submitting vote with key:', key);
+        // Posts the pending vote, done is called once it is recorded
+        function flushVote(done) {
+            if (voteTimer) {
+                clearTimeout(voteTimer);
+                voteTimer = null;
+            }
+            var vote = pendingVote;
+            pendingVote = null;
+            if (!vote) {
+                if (done) done();
+                return;
+            }
 
             AJS.$.ajax({
                 url: AJS.contextPath() + '/secure/PokerVote.jspa',
                 type: 'POST',
-                data: {
-                    key: key,
-                    voteVal: voteValue,
-                    voteComment: comment,
-                    atl_token: AJS.$('meta[name="atlassian-token"]').attr('content')
-                },
+                data: voteData(vote),
                 success: function() {
                     AJS.flag({
                         type: 'success',
@@ -54,6 +118,7 @@
                     if (isCreator) {
                         AJS.$('#end-session-container').show();
                     }
+                    if (done) done();
                 },
                 error: function(xhr) {
                     AJS.flag({
@@ -63,6 +128,49 @@
                     });
                 }
             });
+        }
+
+        // Card click handler using event delegation
+        wrapper.on('click', '.card', function(e) {
+            e.preventDefault();
+            var $this = AJS.$(this);
+
+            // Remove active from all cards
+            wrapper.find('.card').removeClass('active');
+            // Add active to clicked card
+            $this.addClass('active');
+
+            // Read key dynamically from wrapper
+            pendingVote = {
+                key: wrapper.attr('data-issue-key'),
+                value: $this.attr('data-value'),
+                comment: AJS.$('#voteComment').val() || ''
+            };
+            if (voteTimer) {
+                clearTimeout(voteTimer);
+            }
+            voteTimer = setTimeout(function() {
+                flushVote();
+            }, VOTE_QUIET_MILLIS);
+        });
+
+        // A vote still waiting when the dialog closes is posted right away
+        AJS.$(document).off('Dialog.hide.instantPoker').on('Dialog.hide.instantPoker', function() {
+            flushVote();
+        });
+
+        // Leaving the page cannot wait for a response, the browser delivers the vote on its own
+        AJS.$(window).off('pagehide.instantPoker').on('pagehide.instantPoker', function() {
+            if (!pendingVote) return;
+            if (voteTimer) {
+                clearTimeout(voteTimer);
+                voteTimer = null;
+            }
+            if (navigator.sendBeacon) {
+                navigator.sendBeacon(AJS.contextPath() + '/secure/PokerVote.jspa',
+                    new URLSearchParams(voteData(pendingVote)));
+            }
+            pendingVote = null;
         });
 
         // TODO: Real-time voter updates - disabled for now
@@ -84,79 +192,38 @@
 
             console.log('Ending session for key:', key);
 
+            // The session must end with the last card clicked, not the last one posted
+            flushVote(function() {
+                endSession(key);
+            });
+        });
+
+        function endSession(key) {
             AJS.$.ajax({
-                url: AJS.contextPath() + '/secure/PokerVote.jspa',
+                url: AJS.contextPath() + '/rest/planning-poker/1.0/session/' + encodeURIComponent(key) + '/end',
                 type: 'POST',
-                data: {
-                    key: key,
-                    action: 'endSession',
-                    atl_token: AJS.$('meta[name="atlassian-token"]').attr('content')
+                dataType: 'json',
+                headers: {
+                    'X-Atlassian-Token': 'no-check'
                 },
-                success: function(response, status, xhr) {
-                    console.log('End session response:', response, 'Status:', status, 'Status code:', xhr.status);
-
+                success: function(results) {
                     // Stop polling
                     if (pollInterval) {
                         clearInterval(pollInterval);
                     }
 
-                    // Reload dialog content to show results
-                    AJS.$.ajax({
-                        url: AJS.contextPath() + '/secure/InstantPoker!default.jspa',
-                        type: 'GET',
-                        data: {
-                            key: key,
-                            instant: 'true'
-                        },
-                        success: function(html) {
-                            console.log('Fetched fresh content, length:', html.length);
-
-                            // Parse HTML and find wrapper (check root element and descendants)
-                            var $parsed = AJS.$(html);
-                            var newContent = $parsed.filter('#instant-vote-wrapper');
-                            if (newContent.length === 0) {
-                                newContent = $parsed.find('#instant-vote-wrapper');
-                            }
-
-                            console.log('Found wrapper elements:', newContent.length);
-
-                            if (newContent.length > 0) {
-                                console.log('Replacing content with results view');
-                                var oldWrapper = AJS.$('#instant-vote-wrapper');
-                                oldWrapper.replaceWith(newContent);
-                                console.log('Content replaced, re-initializing');
-                                // Re-initialize for the new content
-                                initInstantPoker();
-                            } else {
-                                console.warn('Could not find wrapper in response');
-                                AJS.flag({
-                                    type: 'error',
-                                    title: 'Error',
-                                    body: 'Failed to refresh dialog content. Please close and reopen the dialog.',
-                                    close: 'manual'
-                                });
-                            }
-                        },
-                        error: function(xhr, status, error) {
-                            console.error('Failed to fetch fresh content:', status, error);
-                            AJS.flag({
-                                type: 'error',
-                                title: 'Error',
-                                body: 'Failed to fetch session results: ' + (error || 'Unknown error'),
-                                close: 'manual'
-                            });
-                        }
-                    });
+                    // Render results in place of the voting form
+                    wrapper.html(renderResults(results));
                 },
                 error: function(xhr) {
                     AJS.flag({
                         type: 'error',
                         title: 'Error',
-                        body: 'Failed to end session: ' + (xhr.responseText || 'Unknown error')
+                        body: 'Failed to end session: ' + errorMessage(xhr)
                     });
                 }
             });
-        });
+        }
 
         // Apply estimate button handler (use event delegation on wrapper, not document)
         wrapper.on('click', '.apply-estimate', function() {
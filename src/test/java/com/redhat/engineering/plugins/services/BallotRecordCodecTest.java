@@ -0,0 +1,107 @@
+package com.redhat.engineering.plugins.services;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BallotRecordCodecTest {
+    private final BallotRecordCodec codec = new BallotRecordCodec();
+
+    @Test
+    public void roundTripsBallotWithOrdinalVotes() {
+        Properties ballot = new Properties();
+        ballot.setProperty("seq", "2");
+        ballot.setProperty("expected", "3");
+        ballot.setProperty("voted", "2");
+        ballot.setProperty("quorum", "0");
+        ballot.setProperty("n.alice", "1");
+        ballot.setProperty("v.alice", "4");
+        ballot.setProperty("c.alice", "Needs a migration, \u00fcber careful");
+        ballot.setProperty("x.alice", "1");
+        ballot.setProperty("n.bob", "2");
+        ballot.setProperty("v.bob", "0");
+        ballot.setProperty("x.bob", "1");
+        ballot.setProperty("x.carol", "1");
+        ballot.setProperty(VersionedRecordStore.VERSION, "5");
+        ballot.setProperty(VersionedRecordStore.WRITER, "0b5c3c4e-7c1d-4f6e-9a57-2f0f4c9d6e11");
+
+        assertRoundTrip(ballot);
+    }
+
+    @Test
+    public void readsLegacyPropertiesAsTheyAre() {
+        Properties legacy = new Properties();
+        legacy.setProperty("v.alice", "XL");
+
+        assertSame(legacy, codec.decode(legacy));
+    }
+
+    @Test
+    public void roundTripsLegacyDeckStringVotes() {
+        Properties ballot = new Properties();
+        ballot.setProperty("n.alice", "1");
+        ballot.setProperty("v.alice", "XL");
+        ballot.setProperty("n.bob", "2");
+        ballot.setProperty("v.bob", "?");
+        ballot.setProperty("n.carol", "3");
+        ballot.setProperty("v.carol", "05");
+        ballot.setProperty("v.dave", "-1");
+
+        assertRoundTrip(ballot);
+    }
+
+    @Test
+    public void roundTripsMissingCounters() {
+        Properties ballot = new Properties();
+        ballot.setProperty("seq", "1");
+        ballot.setProperty("n.alice", "1");
+        ballot.setProperty("v.alice", "2");
+        assertRoundTrip(ballot);
+
+        // a ballot cleared by a new session keeps only its version
+        Properties cleared = new Properties();
+        cleared.setProperty(VersionedRecordStore.VERSION, "9");
+        cleared.setProperty(VersionedRecordStore.WRITER, "0b5c3c4e-7c1d-4f6e-9a57-2f0f4c9d6e11");
+        assertRoundTrip(cleared);
+
+        assertRoundTrip(new Properties());
+    }
+
+    @Test
+    public void keepsNonCanonicalNumbersAsText() {
+        Properties ballot = new Properties();
+        ballot.setProperty("seq", "01");
+        ballot.setProperty("voted", "-1");
+        ballot.setProperty("quorum", "1700000000000");
+        ballot.setProperty("n.alice", "abc");
+        ballot.setProperty("v.alice", "+3");
+        ballot.setProperty("x.alice", "0");
+        ballot.setProperty("note", "kept as it is");
+
+        assertRoundTrip(ballot);
+    }
+
+    @Test
+    public void roundTripsSnapshotPosition() {
+        Properties ballot = new Properties();
+        ballot.setProperty("logGeneration", "3");
+        ballot.setProperty("logSeq", "40");
+        ballot.setProperty("seq", "1");
+        ballot.setProperty("n.alice", "1");
+        ballot.setProperty("v.alice", "2");
+        ballot.setProperty(VersionedRecordStore.VERSION, "12");
+
+        assertRoundTrip(ballot);
+    }
+
+    private void assertRoundTrip(Properties record) {
+        Properties copy = new Properties();
+        copy.putAll(record);
+        assertEquals(record, codec.decode(codec.encode(record)));
+        // encoding leaves the record alone
+        assertEquals(copy, record);
+    }
+}
@@ -0,0 +1,87 @@
+package com.redhat.engineering.plugins.services;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRecordCodecTest {
+    private final SessionRecordCodec codec = new SessionRecordCodec();
+
+    @Test
+    public void roundTripsFullRecord() {
+        Properties record = session("1700000000000", "1700000060000", "1700003600000");
+        record.setProperty("authorKey", "JIRAUSER10000");
+        record.setProperty("deckVersion", "3");
+        record.setProperty("roundId", "17");
+        record.setProperty("estimate", "5.0");
+        record.setProperty("analytics", "true");
+        record.setProperty(VersionedRecordStore.VERSION, "42");
+        record.setProperty(VersionedRecordStore.WRITER, "0b5c3c4e-7c1d-4f6e-9a57-2f0f4c9d6e11");
+
+        Object stored = codec.encode(record);
+        assertTrue(((String) stored).startsWith("c1:"));
+        assertEquals(record, codec.decode(stored));
+    }
+
+    @Test
+    public void readsLegacyPropertiesAsTheyAre() {
+        Properties legacy = session("1", "2", "3");
+        legacy.setProperty("authorKey", "admin");
+
+        assertSame(legacy, codec.decode(legacy));
+        assertNull(codec.decode(null));
+    }
+
+    @Test
+    public void keepsNonCanonicalNumbersAsText() {
+        Properties record = session("0123", "+5", "1e3");
+        record.setProperty("deckVersion", "007");
+        record.setProperty("roundId", "-3");
+        record.setProperty("estimate", "1.50");
+        record.setProperty("analytics", "yes");
+        record.setProperty(VersionedRecordStore.VERSION, "01");
+        record.setProperty(VersionedRecordStore.WRITER, "not-a-uuid");
+
+        assertRoundTrip(record);
+    }
+
+    @Test
+    public void roundTripsNegativeStartAndEndDeltas() {
+        // start before creation, end before start
+        assertRoundTrip(session("1700000060000", "1700000000000", "1699999000000"));
+        assertRoundTrip(session("0", "0", "0"));
+    }
+
+    @Test
+    public void roundTripsRecordsWithMissingFields() {
+        Properties partial = new Properties();
+        partial.setProperty("start", "1700000000000");
+        partial.setProperty("authorKey", "admin");
+        assertRoundTrip(partial);
+
+        Properties cleared = new Properties();
+        cleared.setProperty(VersionedRecordStore.VERSION, "7");
+        assertRoundTrip(cleared);
+    }
+
+    private void assertRoundTrip(Properties record) {
+        Properties copy = new Properties();
+        copy.putAll(record);
+        assertEquals(record, codec.decode(codec.encode(record)));
+        // encoding leaves the record alone
+        assertEquals(copy, record);
+    }
+
+    private static Properties session(String created, String start, String end) {
+        Properties record = new Properties();
+        record.setProperty("created", created);
+        record.setProperty("start", start);
+        record.setProperty("end", end);
+        return record;
+    }
+}
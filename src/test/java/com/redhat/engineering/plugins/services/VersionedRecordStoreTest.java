@@ -0,0 +1,121 @@
+package com.redhat.engineering.plugins.services;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Two nodes, each with its own record store and cache, over shared settings and connected
+ * loopback buses.
+ */
+public class VersionedRecordStoreTest {
+    private MemoryPluginSettings settings;
+    private VersionedRecordStore nodeA;
+    private VersionedRecordStore nodeB;
+
+    @Before
+    public void setUp() {
+        settings = new MemoryPluginSettings();
+        LoopbackInvalidationBus busA = new LoopbackInvalidationBus();
+        LoopbackInvalidationBus busB = new LoopbackInvalidationBus();
+        busA.connect(busB);
+        nodeA = new VersionedRecordStore(settings, busA, "test");
+        nodeB = new VersionedRecordStore(settings, busB, "test");
+    }
+
+    @Test
+    public void writeOnOneNodeIsSeenByTheOther() {
+        assertNull(nodeB.get("key"));
+
+        set(nodeA, "key", "1");
+        assertEquals("1", nodeB.get("key").getProperty("value"));
+
+        set(nodeA, "key", "2");
+        assertEquals("2", nodeB.get("key").getProperty("value"));
+        assertEquals(2, VersionedRecordStore.getVersion(nodeB.get("key")));
+    }
+
+    @Test
+    public void updatesOfBothNodesBuildOnEachOther() {
+        set(nodeA, "key", "1");
+        assertEquals("1", nodeB.get("key").getProperty("value"));
+
+        Properties written = nodeB.update("key", new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties record) {
+                record.setProperty("value", record.getProperty("value") + "2");
+                return true;
+            }
+        });
+        assertEquals("12", written.getProperty("value"));
+        assertEquals("12", nodeA.get("key").getProperty("value"));
+    }
+
+    @Test
+    public void removeOnOneNodeIsSeenByTheOther() {
+        set(nodeA, "key", "1");
+        assertEquals("1", nodeB.get("key").getProperty("value"));
+
+        nodeA.remove("key");
+        assertNull(nodeB.get("key"));
+    }
+
+    @Test
+    public void readRacingWithRemoteWriteDoesNotCacheOlderCopy() {
+        set(nodeA, "key", "1");
+        // node A writes while node B is loading the record
+        settings.afterNextGet = new Runnable() {
+            @Override
+            public void run() {
+                set(nodeA, "key", "2");
+            }
+        };
+
+        assertEquals("1", nodeB.get("key").getProperty("value"));
+        assertEquals("2", nodeB.get("key").getProperty("value"));
+    }
+
+    private static void set(VersionedRecordStore store, String key, final String value) {
+        store.update(key, new VersionedRecordStore.Mutation() {
+            @Override
+            public boolean apply(Properties record) {
+                record.setProperty("value", value);
+                return true;
+            }
+        });
+    }
+
+    private static class MemoryPluginSettings implements PluginSettings {
+        private final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+        // runs once between reading and returning the value of the next get
+        private Runnable afterNextGet;
+
+        @Override
+        public Object get(String key) {
+            Object value = values.get(key);
+            Runnable hook = afterNextGet;
+            if (hook != null) {
+                afterNextGet = null;
+                hook.run();
+            }
+            return value;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return value == null ? values.remove(key) : values.put(key, value);
+        }
+
+        @Override
+        public Object remove(String key) {
+            return values.remove(key);
+        }
+    }
+}